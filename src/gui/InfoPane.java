@@ -2,8 +2,8 @@ package gui;
 
 import javafx.scene.control.Label;
 import javafx.scene.layout.VBox;
-import model.world.Cell;
-import model.world.World;
+import model.agent.Agent;
+import model.world.WorldState;
 
 /**
  * A VBox with labels that provide information relative to the
@@ -22,14 +22,14 @@ public class InfoPane extends VBox {
     private Label cellOccupantState = new Label("Occupant state: ");
     private Label cellOccupantTarget = new Label("Occupant target: ");
     
-    public InfoPane(MapPane map, World world) {
+    public InfoPane(MapPane map, WorldState world) {
         super();
         
         map.setGridMouseMoveHandler(event -> {
             int x = (int) Math.floor(event.getX() / BaseCellNode.SIZE);
             int y = (int) Math.floor(event.getY() / BaseCellNode.SIZE);
             if (world.withinBounds(x, y)) {
-                updateCellInformation(world.grid[x][y]);
+                updateCellInformation(world, x, y);
             }
         });
         
@@ -43,13 +43,14 @@ public class InfoPane extends VBox {
                 cellOccupantTarget);
     }
     
-    private void updateCellInformation(Cell cell) {
-        cellCoordinates.setText(String.format("Cell coordinates: [%s, %s]", cell.x, cell.y));
-        cellType.setText(String.format("Type: %s", cell.type));
-        cellCrimeCount.setText(String.format("Crime count: %s", cell.crimeCount));
-        cellLight.setText(String.format("Light: %.4f", cell.light));
-        cellOccupant.setText(String.format("Occupant: %s", cell.occupant));
-        cellOccupantState.setText(String.format("Occupant state: %s", (cell.occupant != null ? cell.occupant.getState() : "n/a")));
-        cellOccupantTarget.setText(String.format("Occupant target: %s", (cell.occupant != null ? cell.occupant.getTarget() : "n/a")));;
+    private void updateCellInformation(WorldState world, int x, int y) {
+        Agent occupant = world.getOccupant(x, y);
+        cellCoordinates.setText(String.format("Cell coordinates: [%s, %s]", x, y));
+        cellType.setText(String.format("Type: %s", world.map.getType(x, y)));
+        cellCrimeCount.setText(String.format("Crime count: %s", world.getCrimeCount(x, y)));
+        cellLight.setText(String.format("Light: %.4f", world.getLight(x, y)));
+        cellOccupant.setText(String.format("Occupant: %s", occupant));
+        cellOccupantState.setText(String.format("Occupant state: %s", (occupant != null ? occupant.getState() : "n/a")));
+        cellOccupantTarget.setText(String.format("Occupant target: %s", (occupant != null ? occupant.getTarget() : "n/a")));;
     }
 }
@@ -5,8 +5,8 @@ import javafx.event.EventHandler;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.GridPane;
-import model.world.Cell;
-import model.world.World;
+import model.world.WorldState;
+import utils.GridKernels;
 
 /**
  * Custom pane which contains the map of the simulation. Extends ScrollPane
@@ -19,22 +19,25 @@ public class MapPane extends ScrollPane {
 
     private ModelCell[][] cells;
     private GridPane grid;
+    
+    // the crime level and the light of every cell by id, see update()
+    private double[] crimeLevels, light;
 
-    public MapPane(World world) {
+    public MapPane(WorldState world) {
         super();
         grid = new GridPane();
         setContent(grid);
         cells = new ModelCell[world.xDimension][world.yDimension];
         for (int x = 0; x < world.xDimension; x++) {
             for (int y = 0; y < world.yDimension; y++) {
-                cells[x][y] = makeCell(world.grid[x][y]);
+                cells[x][y] = makeCell(world, x, y);
                 grid.add(cells[x][y], x, y);
             }
         }
     }
 
-    private ModelCell makeCell(Cell c) {
-        ModelCell cell = new ModelCell(c);
+    private ModelCell makeCell(WorldState world, int x, int y) {
+        ModelCell cell = new ModelCell(world, x, y);
         return cell;
     }
 
@@ -42,6 +45,25 @@ public class MapPane extends ScrollPane {
         return cells;
     }
     
+    /**
+     * Updates every cell in the pane. The crime counts are normalised by
+     * the specified maximum and the light is that of the current time.
+     */
+    public void update(WorldState world, int crimeMax) {
+        if (light == null) {
+            crimeLevels = new double[world.xDimension * world.yDimension];
+            light = new double[world.xDimension * world.yDimension];
+        }
+        GridKernels.normalise(world.getCrimeCounts(), crimeMax, crimeLevels);
+        world.getLight(light);
+        for (int x = 0; x < world.xDimension; x++) {
+            for (int y = 0; y < world.yDimension; y++) {
+                int id = world.map.getId(x, y);
+                cells[x][y].update(crimeLevels[id], light[id]);
+            }
+        }
+    }
+    
     public void setGridMouseMoveHandler(EventHandler<MouseEvent> handler) {
         this.grid.setOnMouseMoved(handler);
     }
@@ -13,7 +13,8 @@ import javafx.scene.control.Button;
 import javafx.scene.control.Slider;
 import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
-import model.world.World;
+import model.world.WorldState;
+import utils.GridKernels;
 import utils.Utils;
 
 /**
@@ -26,14 +27,14 @@ import utils.Utils;
 public class ControlPane extends HBox {
     private Logger log = Utils.getConsoleLogger(getClass());
     private MapPane map;
-    private World world;
+    private WorldState world;
     
     private Button loadButton = new Button("Load log file");
     private Slider slider = new Slider(0, 1, 0);
     
     private ArrayList<HeatMap> heatMaps = new ArrayList<>();
     
-    public ControlPane(MapPane map, World world) {
+    public ControlPane(MapPane map, WorldState world) {
         this.map = map;
         this.world = world;
         
@@ -46,11 +47,7 @@ public class ControlPane extends HBox {
     }
     
     private void updateUI(int max) {
-        for (int x = 0; x < world.xDimension; x++) {
-            for (int y = 0; y < world.yDimension; y++) {
-                map.getCells()[x][y].update(max);
-            }
-        }
+        map.update(world, max);
     }
     
     private void slideHandler(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
@@ -92,19 +89,15 @@ public class ControlPane extends HBox {
         Pattern previousDelimiter = scanner.delimiter();
         scanner.useDelimiter("[^0-9]+");
         
-        int[][] map = new int[world.xDimension][world.yDimension];
-        int max = 0;
-        
+        int[] map = new int[world.xDimension * world.yDimension];
         for (int y = 0; y < world.yDimension; y++) {
             for (int x = 0; x < world.xDimension; x++) {
-                int crimeCount = scanner.nextInt();
-                map[x][y] = crimeCount;
-                max = crimeCount > max ? crimeCount : max;
+                map[world.map.getId(x, y)] = scanner.nextInt();
             }
         }
         
         scanner.useDelimiter(previousDelimiter);
-        return new HeatMap(map, max);
+        return new HeatMap(map, GridKernels.max(map));
     }
     
     /**
@@ -115,19 +108,16 @@ public class ControlPane extends HBox {
         if (map == null) {
             return;
         }
-        for (int y = 0; y < world.yDimension; y++) {
-            for (int x = 0; x < world.xDimension; x++) {
-                world.grid[x][y].crimeCount = map.map[x][y];
-            }
-        }
+        world.setCrimeCounts(map.map);
         updateUI(heatMaps.get(heatMaps.size() - 1).max);
     }
     
     private class HeatMap {
-        public final int[][] map;
+        // crime counts by cell id
+        public final int[] map;
         public final int max;
         
-        public HeatMap(int[][] map, int max) {
+        public HeatMap(int[] map, int max) {
             this.map = map;
             this.max = max;
         }
@@ -8,8 +8,8 @@ import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
-import model.map.MapParser;
-import model.world.World;
+import model.world.StaticWorld;
+import model.world.WorldState;
 
 /**
  * Loads heatmaps from experiment logs and shows them overlaid on the
@@ -19,7 +19,7 @@ public class HeatmapGUI extends Application {
     
     @Override
     public void start(Stage primaryStage) throws Exception {
-        World world = MapParser.parse(new File(getClass().getResource("/city_map_small_lit.map").getPath()));
+        WorldState world = new WorldState(StaticWorld.load(new File(getClass().getResource("/city_map_small_lit.map").getPath())));
         MapPane map = new MapPane(world);
         ControlPane control = new ControlPane(map, world);
         InfoPane info = new InfoPane(map, world);
@@ -15,7 +15,7 @@ import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import model.map.Lighting;
+import model.map.LightingEngine;
 import model.map.MapImage;
 import model.map.MapParser;
 import model.world.CellType;
@@ -48,6 +48,7 @@ public class MapTool extends Application {
     private TextField yDimension = new TextField("");
     private int xDim, yDim;
     private World world;
+    private LightingEngine lighting;
     
     public static void main(String... args) {
         Application.launch(args);
@@ -97,6 +98,7 @@ public class MapTool extends Application {
                 System.err.println("Unknown map format.");
                 return;
             }
+            lighting = new LightingEngine(world);
             xDimension.setText(String.valueOf(world.xDimension));
             yDimension.setText(String.valueOf(world.yDimension));
             resetHandler(null);
@@ -154,18 +156,18 @@ public class MapTool extends Application {
             MapToolCell source = (MapToolCell) event.getSource();
             source.setValue(type.getText());
             world.grid[source.x][source.y].type = CellType.types[newType];
-            Lighting.computeLamp(world, source.x, source.y);
+            lighting.update(source.x, source.y);
             updateLighting(source.x, source.y);
         }
     }
     
     /**
-     * Updates the lighting values of the cells within range around
-     * the specified coordinates.
+     * Updates the lighting values of the cells which may have changed
+     * after editing the cell at the specified coordinates.
      */
     private void updateLighting(int x, int y) {
-        for (int i = -Lighting.RADIUS_INT; i <= Lighting.RADIUS_INT; i++) {
-            for (int j = -Lighting.RADIUS_INT; j <= Lighting.RADIUS_INT; j++) {
+        for (int i = -LightingEngine.REACH; i <= LightingEngine.REACH; i++) {
+            for (int j = -LightingEngine.REACH; j <= LightingEngine.REACH; j++) {
                 if (world.withinBounds(x + i, y + j)) {
                     cells[x + i][y + j].setLight(world.grid[x + i][y + j].light);
                 }
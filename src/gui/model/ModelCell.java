@@ -3,7 +3,8 @@ package gui.model;
 import gui.BaseCellNode;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
-import model.world.Cell;
+import model.agent.Agent;
+import model.world.WorldState;
 
 /**
  * A cell in the model GUI. The appearance of the cell
@@ -16,27 +17,28 @@ import model.world.Cell;
  */
 public class ModelCell extends BaseCellNode {
 
-    private Cell cell;
+    private WorldState world;
     public final int xPosition, yPosition;
     private Rectangle crimeLayer = new Rectangle(SIZE, SIZE, Color.web("#ff0000"));
 
-    public ModelCell(Cell cell) {
+    public ModelCell(WorldState world, int x, int y) {
         super();
-        this.cell = cell;
+        this.world = world;
         crimeLayer.setOpacity(0);
-        xPosition = cell.x;
-        yPosition = cell.y;
+        xPosition = x;
+        yPosition = y;
         getChildren().add(crimeLayer);
     }
     
     /**
-     * Called by the MapPane when the GUI needs to be updated.
+     * Called by the MapPane when the GUI needs to be updated, with the crime
+     * count of the cell relative to the largest one, and the light of the
+     * cell.
      */
-    public void update(int globalCrimeMax) {
-        setStyle(baseStyle + " -fx-background-color: " + (cell.occupant == null ? cell.type.colour : cell.occupant.getState().colour));
-        setLight(cell.light);
-        if (globalCrimeMax > 0) {
-            crimeLayer.setOpacity((double) cell.crimeCount / (double) (globalCrimeMax));
-        }
+    public void update(double crimeLevel, double light) {
+        Agent occupant = world.getOccupant(xPosition, yPosition);
+        setStyle(baseStyle + " -fx-background-color: " + (occupant == null ? world.map.getType(xPosition, yPosition).colour : occupant.getState().colour));
+        setLight(light);
+        crimeLayer.setOpacity(crimeLevel);
     }
 }
@@ -64,11 +64,7 @@ public class SidePane extends VBox {
     private synchronized void updateUI() {
         timeLabel.setText("Time: " + model.world.time);
 
-        for (int x = 0; x < model.world.xDimension; x++) {
-            for (int y = 0; y < model.world.yDimension; y++) {
-                map.getCells()[x][y].update(model.getGlobalCrimeMax());
-            }
-        }
+        map.update(model.world, model.getGlobalCrimeMax());
         notifyAll();
     }
 
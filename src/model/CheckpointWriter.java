@@ -0,0 +1,79 @@
+package model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import utils.Utils;
+
+/**
+ * Writes model checkpoints to a file without holding up the model.
+ *
+ * The state of the model is copied into memory when a checkpoint is taken,
+ * which is quick, and written to disk by a background thread in the meantime.
+ * The file is written next to the target and moved into place once it is
+ * complete, so the target always holds a whole checkpoint. If the disk falls
+ * behind, only the most recent checkpoint is written.
+ */
+public class CheckpointWriter {
+    private Logger log = Utils.getConsoleLogger(getClass());
+    private final File file;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "checkpoint-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicReference<byte[]> latest = new AtomicReference<>();
+
+    public CheckpointWriter(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Takes a checkpoint of the provided model and schedules it to be
+     * written. This must be called between rounds.
+     */
+    public void save(Model model) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            model.writeCheckpoint(out);
+        }
+        // if there was a checkpoint waiting already, its write will pick this one up instead
+        if (latest.getAndSet(bytes.toByteArray()) == null) {
+            executor.execute(this::writeLatest);
+        }
+    }
+
+    private void writeLatest() {
+        byte[] checkpoint = latest.getAndSet(null);
+        if (checkpoint == null) {
+            return;
+        }
+        File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try {
+            Files.write(temporary.toPath(), checkpoint);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            log.fine(String.format("Wrote checkpoint of %s bytes to %s", checkpoint.length, file));
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Could not write checkpoint to " + file, e);
+        }
+    }
+
+    /**
+     * Waits for the scheduled checkpoints to be written and stops the writer.
+     */
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+}
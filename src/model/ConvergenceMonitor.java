@@ -0,0 +1,78 @@
+package model;
+
+import model.world.WorldState;
+import utils.GridKernels;
+
+/**
+ * Decides when a run can stop because its heatmap has stopped changing.
+ *
+ * Every few rounds, the crime counts are normalised into a distribution over
+ * the cells and compared with the distribution at the previous check, using
+ * the total variation distance (half the sum of the absolute differences,
+ * between 0 and 1). The heatmap has converged once the distance has been
+ * within the tolerance for a number of consecutive checks.
+ *
+ * Nothing is done in between checks, so the cost per round is negligible.
+ * The checks themselves are plain passes over the flat crime counts, see
+ * {@link GridKernels}, so a run stops at the same round whether or not the
+ * Vector API is available.
+ */
+public class ConvergenceMonitor {
+    private final double tolerance;
+    private final int interval, window;
+
+    private int[] previous;
+    private long previousTotal = 0;
+    private int stableChecks = 0;
+    private double distance = Double.NaN;
+
+    public ConvergenceMonitor(double tolerance, int interval, int window) {
+        if (interval <= 0 || window <= 0) {
+            throw new IllegalArgumentException("Convergence interval and window must be positive");
+        }
+        this.tolerance = tolerance;
+        this.interval = interval;
+        this.window = window;
+    }
+
+    /**
+     * Called after every round. Returns true if the heatmap has converged.
+     */
+    public boolean update(WorldState world) {
+        if (world.time % interval != 0) {
+            return false;
+        }
+        int[] counts = world.getCrimeCounts();
+        if (previous == null) {
+            previous = new int[counts.length];
+        }
+        long total = GridKernels.sum(counts);
+
+        // there is no distribution to compare until crimes have been committed
+        distance = Double.NaN;
+        if (total > 0 && previousTotal > 0) {
+            distance = GridKernels.totalVariation(counts, total, previous, previousTotal);
+        }
+        System.arraycopy(counts, 0, previous, 0, counts.length);
+        previousTotal = total;
+
+        stableChecks = distance <= tolerance ? stableChecks + 1 : 0;
+        return stableChecks >= window;
+    }
+
+    /**
+     * Returns the distance measured at the last check, or NaN if it could
+     * not be measured.
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    /**
+     * Describes why the heatmap is considered converged.
+     */
+    public String getReason() {
+        return String.format("heatmap converged, distance %.6f within tolerance %s for %d checks %d rounds apart",
+                distance, tolerance, window, interval);
+    }
+}
@@ -1,19 +1,34 @@
 package model;
-import java.util.LinkedList;
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import model.action.Action;
+import model.action.Direction;
 import model.agent.Agent;
 import model.agent.AgentFactory;
-import model.map.MapImage;
-import model.map.MapParser;
+import model.agent.AgentState;
+import model.agent.Population;
+import model.agent.WakeUpScheduler;
 import model.pathfinding.ConcurrentPathFinder;
 import model.pathfinding.ImmediatePathFinder;
 import model.pathfinding.PathFinder;
-import model.world.Cell;
-import model.world.World;
+import model.random.RandomStream;
+import model.random.RandomStreams;
+import model.world.LightingSchedule;
+import model.world.StaticWorld;
+import model.world.WorldState;
 import model.world.WorldWrapper;
 import utils.Utils;
 
@@ -24,126 +39,393 @@ import utils.Utils;
  *
  */
 public class Model {
-    public World world;
+    /**
+     * Identifies checkpoint files, and the version of their format.
+     */
+    private static final int CHECKPOINT_MAGIC = 0x43504d43, CHECKPOINT_VERSION = 2;
+    
+    public WorldState world;
     private WorldWrapper worldWrapper;
     private PathFinder pathFinder;
-    private List<Agent> agents, victims;
+    private Population population;
+    private WakeUpScheduler scheduler;
+    
+    /**
+     * The agents which act in the current round, in order. Only the first
+     * awakeCount slots are in use.
+     */
+    private Agent[] awake;
+    private int awakeCount = 0;
+    private final Consumer<Agent> wakeUpHandler = this::wake;
+    
+    /**
+     * Used in parallel rounds, where decisions[i] is the action decided
+     * by awake[i].
+     */
+    private ForkJoinPool decisionPool;
+    private int[] decisions = new int[0];
     private int round = 0, maxCrime = 0;
     private Parameters parameters;
     
-    public static Random rand;
+    private RandomStreams random;
     private Logger log = Utils.getConsoleLogger(getClass());
 
     public Model(Parameters parameters) {
+        setUp(parameters);
+        if (parameters.warmStart != null) {
+            warmStart(parameters.warmStart);
+            return;
+        }
+        this.random = new RandomStreams(parameters.seed);
+        log.info("Populating map with " + parameters.agents + " agents");
+        AgentFactory.populate(pathFinder, worldWrapper, parameters, population, random);
+        this.awake = new Agent[Math.max(16, population.size())];
+        for (int i = 0; i < population.size(); i++) {
+            wake(population.get(i));
+        }
+    }
+    
+    /**
+     * Restores a model from a checkpoint written by {@link #writeCheckpoint(DataOutput)}.
+     * The model carries on exactly where the checkpointed one was, as long as
+     * the parameters are the same. The checkpoint must have been taken on the
+     * same map.
+     */
+    public Model(Parameters parameters, File checkpoint) throws IOException {
+        setUp(parameters);
+        log.info("Restoring checkpoint: " + checkpoint.getPath());
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint)))) {
+            readCheckpoint(in);
+        }
+    }
+    
+    /**
+     * Starts the model from a burned-in checkpoint, rather than from an empty
+     * world. The agents are exactly as they were in the checkpoint, but they
+     * act under the current parameters, and the heatmap and time start from
+     * scratch, so that the model can be run for a full number of rounds. The
+     * round counter, which drives the checkpoints and the sleeping agents,
+     * is reset along with the time, so every part of the model keeps
+     * following the same clock.
+     * 
+     * If the seed in the parameters is the one the checkpoint was taken with,
+     * the random streams carry on where they were, so variants which only
+     * change weights see the same random numbers. Otherwise, the model and
+     * every agent get new streams derived from the new seed.
+     */
+    private void warmStart(File checkpoint) {
+        log.info("Warm starting from checkpoint: " + checkpoint.getPath());
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint)))) {
+            readCheckpoint(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read warm start checkpoint: " + checkpoint, e);
+        }
+        world.restart();
+        // the round counter follows the time of the world, the sleepers are moved along with it
+        scheduler.shiftRounds(-round);
+        round = 0;
+        maxCrime = 0;
+        if (random.getSeed() != parameters.seed) {
+            log.info("Reseeding from " + random.getSeed() + " to " + parameters.seed);
+            random = new RandomStreams(parameters.seed);
+            AgentFactory.reseedAgents(population, random);
+        }
+    }
+    
+    /**
+     * Loads the map and sets up everything but the agents.
+     */
+    private void setUp(Parameters parameters) {
         log.info("Initialising model");
         this.parameters = parameters;
-        rand = new Random(parameters.seed);
         log.info("Loading map: " + parameters.map.getPath());
-        if (parameters.map.getName().endsWith(".map")) {
-            this.world = MapParser.parse(parameters.map);
-        } else if (parameters.map.getName().endsWith(".jpeg")) {
-            this.world = MapImage.loadWorldFromImage(parameters.map);
-        } else {
-            System.err.println("Unknown map format!");
-            System.exit(1);
-        }
-    	
+        // the map itself is shared with every other model using the same file
+        StaticWorld map = StaticWorld.load(parameters.map, parameters.imageScale, parameters.roadThreshold);
+        if (map == null) {
+            throw new IllegalArgumentException("Could not load map: " + parameters.map);
+        }
+        this.world = new WorldState(map);
+        if (parameters.dayLength > 0) {
+            world.setLightingSchedule(new LightingSchedule(parameters.dayLength, parameters.naturalLight,
+                    parameters.lampsOn, parameters.lampGroups));
+        }
         this.worldWrapper = new WorldWrapper(world);
         this.pathFinder = parameters.parallel ? new ConcurrentPathFinder(worldWrapper) : new ImmediatePathFinder(worldWrapper);
-        log.info("Populating map with " + parameters.agents + " agents");
-        this.agents = AgentFactory.populate(pathFinder, worldWrapper, parameters);
-        this.victims = new LinkedList<Agent>();
+        if (parameters.parallelRounds) {
+            this.decisionPool = new ForkJoinPool(parameters.threads);
+        }
+        this.population = new Population();
+        this.scheduler = new WakeUpScheduler(world.xDimension, world.yDimension, parameters.roundTimeOut);
+    }
+    
+    /**
+     * Writes the complete state of the model: the random streams, every
+     * agent, the sleeping agents, the order of the awake ones, the world and
+     * the paths still being computed. This must be called between rounds.
+     * 
+     * The static world is not written, it is loaded from the map file.
+     */
+    public void writeCheckpoint(DataOutput out) throws IOException {
+        out.writeInt(CHECKPOINT_MAGIC);
+        out.writeInt(CHECKPOINT_VERSION);
+        out.writeInt(world.xDimension);
+        out.writeInt(world.yDimension);
+        out.writeInt(round);
+        out.writeInt(maxCrime);
+        random.write(out);
+        AgentFactory.writeAgents(population, out);
+        scheduler.write(out);
+        out.writeInt(awakeCount);
+        for (int i = 0; i < awakeCount; i++) {
+            out.writeInt(awake[i].getId());
+        }
+        world.write(out);
+        
+        List<int[]> paths = pathFinder.getPendingPaths();
+        out.writeInt(paths.size());
+        for (int[] path : paths) {
+            for (int point : path) {
+                out.writeInt(point);
+            }
+        }
+    }
+    
+    private void readCheckpoint(DataInput in) throws IOException {
+        if (in.readInt() != CHECKPOINT_MAGIC) {
+            throw new IOException("Not a checkpoint file");
+        }
+        int version = in.readInt();
+        if (version != CHECKPOINT_VERSION) {
+            throw new IOException("Unsupported checkpoint version: " + version);
+        }
+        int xDimension = in.readInt(), yDimension = in.readInt();
+        if (xDimension != world.xDimension || yDimension != world.yDimension) {
+            throw new IOException(String.format("Checkpoint is for a %sx%s map, not %sx%s",
+                    xDimension, yDimension, world.xDimension, world.yDimension));
+        }
+        round = in.readInt();
+        maxCrime = in.readInt();
+        random = RandomStreams.read(in);
+        AgentFactory.readAgents(pathFinder, worldWrapper, parameters, population, in);
+        scheduler.read(in, population);
+        awakeCount = in.readInt();
+        awake = new Agent[Math.max(16, awakeCount)];
+        for (int i = 0; i < awakeCount; i++) {
+            awake[i] = population.get(in.readInt());
+        }
+        world.read(in);
+        
+        int paths = in.readInt();
+        for (int i = 0; i < paths; i++) {
+            pathFinder.schedulePath(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        }
+        log.info(String.format("Restored round %s, %s agents awake and %s asleep", round, awakeCount, scheduler.size()));
     }
 
     /**
      * Simulates a single iteration.
+     * 
+     * The awake agents act one at a time, in the order of the previous
+     * round. Robbers, their victims and agents which have timed out are then
+     * removed, the model is topped up with new agents and the order is
+     * shuffled for the next round. This is done in place, so that a round
+     * takes time proportional to the number of awake agents and allocates
+     * nothing in the process.
+     * 
+     * If parallel rounds are enabled, every agent first decides on its action
+     * at the same time, against the world as it was at the start of the round
+     * (see {@link #decideAll()}). The actions are then committed one at a time,
+     * in the same order and under the same rules as in a sequential round. The
+     * only difference is that in a sequential round, each agent sees the actions
+     * committed by the agents before it, whereas in a parallel round it sees none.
+     * Actions which are no longer possible by the time they are committed fail
+     * (see {@link #applyAction(Agent, int)}). 
      */
     public void doIteration() {
         log.fine("Start round ------------------------------------------------------------------------------");
 
-        LinkedList<Agent> shuffledList = new LinkedList<Agent>();
+        // sleeping agents whose surroundings changed or whose timer ran out rejoin the round
+        scheduler.wakeUp(round, wakeUpHandler);
+        
+        if (parameters.parallelRounds) {
+            decideAll();
+        }
         
-        for (Agent agent : agents) {
+        int kept = 0;
+        for (int i = 0; i < awakeCount; i++) {
+            Agent agent = awake[i];
             
             // if this agent was robbed this round, simply leave it out
-            if (victims.contains(agent)) {
+            if (!agent.active) {
                 continue;
             }
             
-            Agent victim = applyAction(agent);
+            Agent victim = applyAction(agent, parameters.parallelRounds ? decisions[i] : agent.act());
             
             /* if the action returned a victim, it means that the agent robbed it
-             * in this case, leave the robber out and mark the victim as such
+             * in this case, remove both the robber and the victim from the model
              */
             if (victim != null) {
-                victims.add(victim);
-                // remove both agents from the model as well
                 removeAgent(victim);
                 removeAgent(agent);
             } else if (agent.getRounds() > parameters.roundTimeOut) {
                 removeAgent(agent);
+            } else if (parameters.loiterWakeUps && agent.isIdle()) {
+                scheduler.sleep(agent, round);
             } else {
-                if (rand.nextBoolean()) {
-                    shuffledList.addFirst(agent);
-                } else {
-                    shuffledList.addLast(agent);
-                }
+                awake[kept++] = agent;
             }
         }
         
-        // remove all victims from the model
-        if (shuffledList.removeAll(victims)) {
-            log.fine(String.format("Victims were removed from the model, current agent count: %s", shuffledList.size()));
+        // victims who had already acted this round are still in the list
+        awakeCount = 0;
+        for (int i = 0; i < kept; i++) {
+            if (awake[i].active) {
+                awake[awakeCount++] = awake[i];
+            }
         }
+        Arrays.fill(awake, awakeCount, kept, null);
         
         // top up the model if necessary
-        while (shuffledList.size() < parameters.agents) {
-            shuffledList.addFirst(AgentFactory.createAgent(pathFinder, worldWrapper, parameters));
-            log.fine(String.format("Added new agent to model: %s", shuffledList.getFirst()));
+        while (population.size() < parameters.agents) {
+            Agent agent = AgentFactory.createAgent(pathFinder, worldWrapper, parameters, population, random);
+            wake(agent);
+            scheduler.notify(agent.x, agent.y);
+            if (log.isLoggable(Level.FINE)) {
+                log.fine(String.format("Added new agent to model: %s", agent));
+            }
         }
         
-        agents = shuffledList;
-        victims.clear();
+        shuffle(awake, awakeCount, random.get(RandomStreams.Subsystem.SCHEDULE));
         world.stateTick();
+        // sleepers which can see cells whose light changed may now find a victim
+        int[] lightChange = world.getLightChange();
+        if (lightChange != null) {
+            scheduler.notify(lightChange[0], lightChange[1], lightChange[2], lightChange[3]);
+        }
+        
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(String.format("Round %s done", round));
+        }
+        round++;
+    }
+    
+    /**
+     * Adds the agent to the end of the list of awake agents.
+     */
+    private void wake(Agent agent) {
+        if (awakeCount == awake.length) {
+            awake = Arrays.copyOf(awake, awakeCount * 2);
+        }
+        awake[awakeCount++] = agent;
+    }
+    
+    /**
+     * Fisher-Yates shuffle of the first count agents in place, using the
+     * provided random stream.
+     */
+    private static void shuffle(Agent[] agents, int count, RandomStream random) {
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Agent swap = agents[i];
+            agents[i] = agents[j];
+            agents[j] = swap;
+        }
+    }
+
+    /**
+     * Has every awake agent decide on its action for this round, in parallel.
+     * Agents only change themselves while deciding, and only look at the world
+     * and at each other's visible state, which stay frozen until the actions
+     * are committed.
+     */
+    private void decideAll() {
+        if (decisions.length < awakeCount) {
+            decisions = new int[awake.length];
+        }
+        decisionPool.invoke(new DecisionTask(0, awakeCount));
+    }
+    
+    /**
+     * Decides the actions of a range of awake agents, splitting it up
+     * between threads if it is large enough.
+     */
+    private class DecisionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 8;
+        private final int from, to;
+        
+        DecisionTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
         
-        log.fine(String.format("Round %s done", round++));
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    decisions[i] = awake[i].act();
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DecisionTask(from, middle), new DecisionTask(middle, to));
+            }
+        }
     }
 
     /**
-     * Gets the specified agent's action and commits it to the model.
-     * Returns a victim agent, if there was a victim in this action.
-     * Otherwise, returns null.
+     * Commits the provided action, which the specified agent has decided on,
+     * to the model. Returns a victim agent, if there was a victim in this
+     * action. Otherwise, returns null.
+     * 
+     * The action only succeeds if it is still possible: an agent can only
+     * move into a cell which is free, and can only rob the agent it has
+     * targeted if the target is still in the cell it meant to rob. This
+     * always holds in sequential rounds; in parallel rounds, agents which
+     * commit first win contested cells and victims.
      */
-    private Agent applyAction(Agent agent) {
+    private Agent applyAction(Agent agent, int action) {
         Agent victim = null;
-        Action action = agent.act();
+        Direction direction = Action.direction(action);
+        AgentState previousState = agent.getVisibleState();
+        agent.publishState();
         
-        if (action != Action.WAIT && action.direction == null) {
+        // an agent which stops stalking becomes a potential victim for the sleepers around it
+        if (previousState == AgentState.STALKING && agent.getVisibleState() != AgentState.STALKING) {
+            scheduler.notify(agent.x, agent.y);
+        }
+        
+        if (Action.kind(action) != Action.WAIT && direction == null) {
             return null;
         }
 
-        Cell targetCell;
-        switch (action) {
+        switch (Action.kind(action)) {
         case MOVE:
-            targetCell = world.grid[agent.x + action.direction.x][agent.y + action.direction.y];
-            if (worldWrapper.isFree(targetCell.x, targetCell.y)) {
-                world.grid[agent.x][agent.y].occupant = null;
-                agent.x += action.direction.x;
-                agent.y += action.direction.y;
-                world.grid[agent.x][agent.y].occupant = agent;
-                log.finer(String.format("%s moved %s", agent, action.direction));
+            if (worldWrapper.isFree(agent.x + direction.x, agent.y + direction.y)) {
+                worldWrapper.setOccupant(agent.x, agent.y, null);
+                agent.x += direction.x;
+                agent.y += direction.y;
+                worldWrapper.setOccupant(agent.x, agent.y, agent);
+                agent.moved();
+                scheduler.notify(agent.x, agent.y);
+                if (log.isLoggable(Level.FINER)) {
+                    log.finer(String.format("%s moved %s", agent, direction));
+                }
             }
             break;
         case ROB:
-            targetCell = world.grid[agent.x + action.direction.x][agent.y + action.direction.y];
-            victim = targetCell.occupant;
-            if (victim != null) {
-                maxCrime = Math.max(maxCrime, ++world.grid[agent.x][agent.y].crimeCount);
+            victim = worldWrapper.getOccupant(agent.x + direction.x, agent.y + direction.y);
+            if (victim != null && victim == agent.getTarget()) {
+                maxCrime = Math.max(maxCrime, world.addCrime(agent.x, agent.y));
                 log.info(String.format("Round %d: %s robbed %s!", round, agent, victim));
+            } else {
+                victim = null;
             }
             break;
         case WAIT:
-            log.finer(String.format("%s waited", agent));
+            if (log.isLoggable(Level.FINER)) {
+                log.finer(String.format("%s waited", agent));
+            }
             break;
         default:
             log.finer(String.format("%s has no idea what it's doing, go home %s", agent, agent));
@@ -154,8 +436,12 @@ public class Model {
     }
     
     private void removeAgent(Agent agent) {
-        agent.active = false;
-        world.grid[agent.x][agent.y].occupant = null;
+        if (agent.active) {
+            agent.active = false;
+            worldWrapper.setOccupant(agent.x, agent.y, null);
+            population.remove(agent);
+            scheduler.remove(agent);
+        }
     }
     
     /**
@@ -163,6 +449,17 @@ public class Model {
      */
     public void stop() {
         pathFinder.stop();
+        if (decisionPool != null) {
+            decisionPool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Returns the number of rounds done so far. This is always the same as
+     * the time of the world.
+     */
+    public int getRound() {
+        return round;
     }
     
     /**
@@ -1,6 +1,10 @@
 package model;
 
-import model.world.World;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import model.world.WorldState;
 
 public final class ModelCLI {
 
@@ -9,6 +13,11 @@ public final class ModelCLI {
     /**
      * Run the model headless for higher performance. Output is
      * written to stdout, including the periodic heatmap dumps.
+     * 
+     * If a checkpoint file is provided after the parameter file, the
+     * model is restored from it and carries on from the round where
+     * the checkpoint was taken. This takes precedence over warm_start
+     * in the parameters.
      */
     public static void main(String[] args) throws Exception {
         if (args.length < 1) {
@@ -17,27 +26,59 @@ public final class ModelCLI {
         }
 
         Parameters parameters = new Parameters(args[0]);
-        Model model = new Model(parameters);
-        
-        for (int i = 0; i < parameters.rounds; i++) {
-            model.doIteration();
-            if (i % parameters.dumpFrequency == 0) {
-                dumpHeatMap(model.world);
+        Model model = args.length > 1 ? new Model(parameters, new File(args[1])) : new Model(parameters);
+        run(model, parameters, System.out);
+    }
+
+    /**
+     * Runs the model until its time reaches the number of rounds in the
+     * parameters, writing the periodic heatmap dumps to the provided
+     * stream, and stops it. If checkpoints are enabled, they are taken
+     * every checkpoint_frequency rounds.
+     * 
+     * If a convergence tolerance is set, the run also stops as soon as
+     * the heatmap converges (see {@link ConvergenceMonitor}). The final
+     * dump is preceded by the round and the reason for stopping.
+     */
+    static void run(Model model, Parameters parameters, PrintStream out) throws IOException, InterruptedException {
+        CheckpointWriter checkpoints = parameters.checkpointFrequency > 0
+                ? new CheckpointWriter(parameters.checkpointFile) : null;
+        ConvergenceMonitor convergence = parameters.convergenceTolerance > 0
+                ? new ConvergenceMonitor(parameters.convergenceTolerance, parameters.convergenceInterval,
+                        parameters.convergenceWindow) : null;
+        String stopReason = "round limit reached";
+        try {
+            for (int i = model.world.time; i < parameters.rounds; i++) {
+                model.doIteration();
+                if (i % parameters.dumpFrequency == 0) {
+                    dumpHeatMap(model.world, out);
+                }
+                if (checkpoints != null && model.getRound() % parameters.checkpointFrequency == 0) {
+                    checkpoints.save(model);
+                }
+                if (convergence != null && convergence.update(model.world)) {
+                    stopReason = convergence.getReason();
+                    break;
+                }
+            }
+        } finally {
+            model.stop();
+            if (checkpoints != null) {
+                checkpoints.close();
             }
         }
-        
-        model.stop();
-        dumpHeatMap(model.world);
+        out.format("Stopped after %s rounds: %s\n", model.world.time, stopReason);
+        dumpHeatMap(model.world, out);
     }
-    
-    private static void dumpHeatMap(World w) {
-        System.out.format("Heat map after %s rounds\n", w.time);
+
+    private static void dumpHeatMap(WorldState w, PrintStream out) {
+        out.format("Heat map after %s rounds\n", w.time);
         for (int y = 0; y < w.yDimension; y++) {
             for (int x = 0; x < w.xDimension; x++) {
-                System.out.print(w.grid[x][y].crimeCount + ",");
+                out.print(w.getCrimeCount(x, y) + ",");
             }
-            System.out.println();
+            out.println();
         }
-        System.out.println("Done.");
+        out.println("Done.");
     }
 }
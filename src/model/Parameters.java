@@ -1,11 +1,13 @@
 package model;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import model.map.Lighting;
+import model.map.MapImage;
 import utils.Utils;
 
 /**
@@ -22,11 +24,22 @@ public final class Parameters {
     
     public boolean parallel = false;
     public int threads = 4;
+    public boolean parallelRounds = false;
     public File map;
+    public int imageScale = MapImage.DEFAULT_SCALE;
+    public int roadThreshold = MapImage.DEFAULT_ROAD_THRESHOLD;
     public File heatMapOverlay;
     public long seed = 123456789;
     public int roundTimeOut = 600;
     public int dumpFrequency = 10000;
+    // opt-in, since sleeping agents draw fewer random numbers than polling ones
+    public boolean loiterWakeUps = false;
+    public int checkpointFrequency = 0;
+    public File checkpointFile = new File("model.checkpoint");
+    public File warmStart;
+    public double convergenceTolerance = 0;
+    public int convergenceInterval = 1000;
+    public int convergenceWindow = 5;
     
     public int ageWeight = 1;
     public int educationWeight = 1;
@@ -37,6 +50,13 @@ public final class Parameters {
     public int lightWeight = 1;
     public int lightRandomWeight = 1;
     public double crimeLightThreshold = Lighting.LIGHT_THRESHOLD;
+    
+    // lighting over the day, off unless day_length is set (see LightingSchedule)
+    public int dayLength = 0;
+    public double[] naturalLight = { 0 };
+    // the lamps in no group first, then each group in lampGroups, as {minX, minY, maxX, maxY}
+    public boolean[][] lampsOn = { { true } };
+    public int[][] lampGroups = {};
     public int maxWitnessesInSight = 2;
     public int totalConditionsWeight = lightWeight + lightRandomWeight;
 
@@ -51,65 +71,7 @@ public final class Parameters {
                 String[] parameter = input.nextLine().split("(?<!\\\\) ");
                 line++;
                 if (parameter.length > 1) {
-                    switch (parameter[0]) {
-                    case "agents":
-                        agents = Integer.parseInt(parameter[1]);
-                        break;
-                    case "rounds":
-                        rounds = Integer.parseInt(parameter[1]);
-                        break;
-                    case "map":
-                        map = new File(parameter[1]);
-                        if (!map.exists() || !map.canRead()) {
-                            throw new Exception("Invalid map path: " + parameter[1]);
-                        }
-                        break;
-                    case "parallel":
-                        parallel = Boolean.parseBoolean(parameter[1]);
-                        break;
-                    case "threads":
-                        threads = Integer.parseInt(parameter[1]); 
-                        break;
-                    case "seed":
-                        seed = Long.parseLong(parameter[1]);
-                        break;
-                    case "round_timeout":
-                        roundTimeOut = Integer.parseInt(parameter[1]);
-                    case "dump_frequency":
-                        dumpFrequency = Integer.parseInt(parameter[1]);
-                    case "age_weight":
-                        ageWeight = Integer.parseInt(parameter[1]);
-                        break;
-                    case "education_weight":
-                        educationWeight = Integer.parseInt(parameter[1]);
-                        break;
-                    case "income_weight":
-                        incomeWeight = Integer.parseInt(parameter[1]);
-                        break;
-                    case "wouldrob_random_weight":
-                        wouldRobRandomWeight = Integer.parseInt(parameter[1]);
-                        break;
-                    case "light_weight":
-                        lightWeight = Integer.parseInt(parameter[1]);
-                        break;
-                    case "light_random_weight":
-                        lightRandomWeight = Integer.parseInt(parameter[1]);
-                        break;
-                    case "crime_light_threshold":
-                        crimeLightThreshold = Double.parseDouble(parameter[1]);
-                        break;
-                    case "max_witnesses_in_sight":
-                        maxWitnessesInSight = Integer.parseInt(parameter[1]);
-                        break;
-                    case "heat_map":
-                    	heatMapOverlay = new File(parameter[1]);
-                        if (!heatMapOverlay.exists() || !heatMapOverlay.canRead()) {
-                            throw new Exception("Invalid heat map path: " + parameter[1]);
-                        }
-                        break;
-                    default:
-                        break;
-                    }
+                    set(parameter[0], parameter[1]);
                 }
             }
             updateTotals();
@@ -120,6 +82,147 @@ public final class Parameters {
         }
     }
     
+    /**
+     * Overrides a single parameter, using the same keys and value formats as
+     * the parameter file. Unknown keys are ignored, like in the file.
+     */
+    public void override(String key, String value) throws Exception {
+        set(key, value);
+        updateTotals();
+    }
+    
+    private void set(String key, String value) throws Exception {
+        switch (key) {
+        case "agents":
+            agents = Integer.parseInt(value);
+            break;
+        case "rounds":
+            rounds = Integer.parseInt(value);
+            break;
+        case "map":
+            map = new File(value);
+            if (!map.exists() || !map.canRead()) {
+                throw new Exception("Invalid map path: " + value);
+            }
+            break;
+        case "image_scale":
+            imageScale = Integer.parseInt(value);
+            break;
+        case "road_threshold":
+            roadThreshold = Integer.parseInt(value);
+            break;
+        case "parallel":
+            parallel = Boolean.parseBoolean(value);
+            break;
+        case "parallel_rounds":
+            parallelRounds = Boolean.parseBoolean(value);
+            break;
+        case "threads":
+            threads = Integer.parseInt(value); 
+            break;
+        case "seed":
+            seed = Long.parseLong(value);
+            break;
+        case "loiter_wake_ups":
+            loiterWakeUps = Boolean.parseBoolean(value);
+            break;
+        case "checkpoint_frequency":
+            checkpointFrequency = Integer.parseInt(value);
+            break;
+        case "checkpoint_file":
+            checkpointFile = new File(value);
+            break;
+        case "warm_start":
+            warmStart = new File(value);
+            if (!warmStart.exists() || !warmStart.canRead()) {
+                throw new Exception("Invalid warm start path: " + value);
+            }
+            break;
+        case "convergence_tolerance":
+            convergenceTolerance = Double.parseDouble(value);
+            break;
+        case "convergence_interval":
+            convergenceInterval = Integer.parseInt(value);
+            break;
+        case "convergence_window":
+            convergenceWindow = Integer.parseInt(value);
+            break;
+        case "round_timeout":
+            roundTimeOut = Integer.parseInt(value);
+            break;
+        case "dump_frequency":
+            dumpFrequency = Integer.parseInt(value);
+            break;
+        case "age_weight":
+            ageWeight = Integer.parseInt(value);
+            break;
+        case "education_weight":
+            educationWeight = Integer.parseInt(value);
+            break;
+        case "income_weight":
+            incomeWeight = Integer.parseInt(value);
+            break;
+        case "wouldrob_random_weight":
+            wouldRobRandomWeight = Integer.parseInt(value);
+            break;
+        case "light_weight":
+            lightWeight = Integer.parseInt(value);
+            break;
+        case "light_random_weight":
+            lightRandomWeight = Integer.parseInt(value);
+            break;
+        case "crime_light_threshold":
+            crimeLightThreshold = Double.parseDouble(value);
+            break;
+        case "day_length":
+            dayLength = Integer.parseInt(value);
+            break;
+        case "natural_light":
+            String[] levels = value.split(",");
+            naturalLight = new double[levels.length];
+            for (int i = 0; i < levels.length; i++) {
+                naturalLight[i] = Double.parseDouble(levels[i]);
+            }
+            break;
+        case "lamps_on":
+            String[] groups = value.split(";");
+            lampsOn = new boolean[groups.length][];
+            for (int group = 0; group < groups.length; group++) {
+                String[] phases = groups[group].split(",");
+                lampsOn[group] = new boolean[phases.length];
+                for (int i = 0; i < phases.length; i++) {
+                    lampsOn[group][i] = Boolean.parseBoolean(phases[i]);
+                }
+            }
+            break;
+        case "lamp_groups":
+            String[] rectangles = value.split(";");
+            lampGroups = new int[rectangles.length][];
+            for (int group = 0; group < rectangles.length; group++) {
+                String[] bounds = rectangles[group].split(",");
+                if (bounds.length != 4) {
+                    throw new Exception("Invalid lamp group, it must be minX,minY,maxX,maxY: " + rectangles[group]);
+                }
+                lampGroups[group] = new int[4];
+                for (int i = 0; i < 4; i++) {
+                    lampGroups[group][i] = Integer.parseInt(bounds[i]);
+                }
+            }
+            break;
+        case "max_witnesses_in_sight":
+            maxWitnessesInSight = Integer.parseInt(value);
+            break;
+        case "heat_map":
+        	heatMapOverlay = new File(value);
+            if (!heatMapOverlay.exists() || !heatMapOverlay.canRead()) {
+                throw new Exception("Invalid heat map path: " + value);
+            }
+            break;
+        default:
+            break;
+        }
+    }
+    
     private void updateTotals() {
         totalWouldRobWeight = ageWeight + educationWeight + incomeWeight + wouldRobRandomWeight;
         totalConditionsWeight = lightWeight + lightRandomWeight;
@@ -130,11 +233,21 @@ public final class Parameters {
         log.info("Agents: " + agents);
         log.info("Rounds: " + rounds);
         log.info("Map: " + map.getAbsolutePath());
+        log.info("Image scale: " + imageScale);
+        log.info("Road threshold: " + roadThreshold);
         log.info("Running in parallel: " + parallel);
         log.info("Threads: " + threads);
+        log.info("Parallel rounds: " + parallelRounds);
         log.info("Seed: " + seed);
         log.info("Round timeout: " + roundTimeOut);
         log.info("Dump frequency: " + dumpFrequency);
+        log.info("Loiter wake-ups: " + loiterWakeUps);
+        log.info("Checkpoint frequency: " + checkpointFrequency);
+        log.info("Checkpoint file: " + checkpointFile.getPath());
+        log.info("Warm start: " + warmStart);
+        log.info("Convergence tolerance: " + convergenceTolerance);
+        log.info("Convergence interval: " + convergenceInterval);
+        log.info("Convergence window: " + convergenceWindow);
         log.info("Age weight: " + ageWeight);
         log.info("Education weight: " + educationWeight);
         log.info("Income weight: " + incomeWeight);
@@ -142,6 +255,10 @@ public final class Parameters {
         log.info("Light weight: " + lightWeight);
         log.info("Light random weight: " + lightRandomWeight);
         log.info("Crime light threshold: " + crimeLightThreshold);
+        log.info("Day length: " + dayLength);
+        log.info("Natural light: " + Arrays.toString(naturalLight));
+        log.info("Lamps on: " + Arrays.deepToString(lampsOn));
+        log.info("Lamp groups: " + Arrays.deepToString(lampGroups));
         log.info("Maximum witnesses in sight: " + maxWitnessesInSight);
         log.info("Heat map file: " + heatMapOverlay);
     }
@@ -0,0 +1,177 @@
+package model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+import model.random.RandomStream;
+
+/**
+ * Describes a parameter sweep: a base parameter file, the sets of parameter
+ * overrides to run it with and the seeds to replicate each of them with.
+ * Should be created from a sweep file, which has one setting per line:
+ *
+ * <pre>
+ * base &lt;parameter file&gt;         parameters shared by every run (required)
+ * output &lt;directory&gt;            where the run outputs are written (default: sweep)
+ * threads &lt;n&gt;                   runs executed at the same time (default: one per core)
+ * replications &lt;n&gt;              seeds per set of overrides, derived from the base seed (default: 1)
+ * seeds &lt;s1&gt; &lt;s2&gt; ...           explicit seeds, used instead of replications
+ * grid &lt;key&gt; &lt;v1&gt; &lt;v2&gt; ...      every value is run with every value of the other grid keys
+ * variant &lt;k1&gt;=&lt;v1&gt; &lt;k2&gt;=&lt;v2&gt;   an explicit set of overrides, combined with the grid
+ * </pre>
+ *
+ * Keys and values are the same as in the parameter file. Empty lines and
+ * lines starting with # are ignored.
+ */
+public final class Sweep {
+
+    /**
+     * A single run of the sweep.
+     */
+    public static final class Run {
+        public final int id;
+        public final Map<String, String> overrides;
+        public final long seed;
+
+        private Run(int id, Map<String, String> overrides, long seed) {
+            this.id = id;
+            this.overrides = overrides;
+            this.seed = seed;
+        }
+
+        /**
+         * Creates the parameters of this run, by applying its overrides and
+         * seed to the base parameter file.
+         */
+        public Parameters createParameters(String base) throws Exception {
+            Parameters parameters = new Parameters(base);
+            for (Map.Entry<String, String> override : overrides.entrySet()) {
+                parameters.override(override.getKey(), override.getValue());
+            }
+            parameters.override("seed", Long.toString(seed));
+            return parameters;
+        }
+    }
+
+    public String base;
+    public File output = new File("sweep");
+    public int threads = Runtime.getRuntime().availableProcessors();
+    public int replications = 1;
+    public long[] seeds;
+
+    private Map<String, List<String>> grid = new LinkedHashMap<>();
+    private List<Map<String, String>> variants = new ArrayList<>();
+
+    public Sweep(String filePath) throws Exception {
+        File file = new File(filePath);
+        if (!file.exists() || !file.canRead()) {
+            throw new Exception("Invalid sweep file path: " + filePath);
+        }
+        int line = 0;
+        try (Scanner input = new Scanner(file)) {
+            while (input.hasNextLine()) {
+                String text = input.nextLine().trim();
+                line++;
+                if (text.isEmpty() || text.startsWith("#")) {
+                    continue;
+                }
+                set(text.split("\\s+"));
+            }
+        } catch (Exception e) {
+            throw new Exception("Failed to parse line " + line + " of " + filePath, e);
+        }
+        if (base == null) {
+            throw new Exception("Sweep file has no base parameter file: " + filePath);
+        }
+    }
+
+    private void set(String[] setting) throws Exception {
+        String[] values = Arrays.copyOfRange(setting, 1, setting.length);
+        switch (setting[0]) {
+        case "base":
+            base = values[0];
+            break;
+        case "output":
+            output = new File(values[0]);
+            break;
+        case "threads":
+            threads = Integer.parseInt(values[0]);
+            break;
+        case "replications":
+            replications = Integer.parseInt(values[0]);
+            break;
+        case "seeds":
+            seeds = Arrays.stream(values).mapToLong(Long::parseLong).toArray();
+            break;
+        case "grid":
+            if (values.length < 2) {
+                throw new Exception("Grid entry needs a key and at least one value");
+            }
+            grid.put(values[0], Arrays.asList(Arrays.copyOfRange(values, 1, values.length)));
+            break;
+        case "variant":
+            Map<String, String> variant = new LinkedHashMap<>();
+            for (String value : values) {
+                String[] override = value.split("=", 2);
+                if (override.length < 2) {
+                    throw new Exception("Invalid variant override: " + value);
+                }
+                variant.put(override[0], override[1]);
+            }
+            variants.add(variant);
+            break;
+        default:
+            throw new Exception("Unknown sweep setting: " + setting[0]);
+        }
+    }
+
+    /**
+     * Expands the sweep into the list of runs to execute. Every variant
+     * (or no overrides at all, if there are none) is combined with every
+     * point in the grid, and each of the results is run once per seed.
+     *
+     * If no seeds were listed, they are drawn from a stream seeded with the
+     * seed of the base parameter file, so replications are reproducible.
+     */
+    public List<Run> getRuns(long baseSeed) {
+        long[] runSeeds = seeds;
+        if (runSeeds == null) {
+            RandomStream seedStream = new RandomStream(baseSeed);
+            runSeeds = new long[replications];
+            for (int i = 0; i < replications; i++) {
+                runSeeds[i] = seedStream.nextLong();
+            }
+        }
+
+        List<Map<String, String>> combinations = new ArrayList<>();
+        if (variants.isEmpty()) {
+            combinations.add(new LinkedHashMap<>());
+        } else {
+            combinations.addAll(variants);
+        }
+        for (Map.Entry<String, List<String>> axis : grid.entrySet()) {
+            List<Map<String, String>> expanded = new ArrayList<>();
+            for (Map<String, String> combination : combinations) {
+                for (String value : axis.getValue()) {
+                    Map<String, String> overrides = new LinkedHashMap<>(combination);
+                    overrides.put(axis.getKey(), value);
+                    expanded.add(overrides);
+                }
+            }
+            combinations = expanded;
+        }
+
+        List<Run> runs = new ArrayList<>();
+        for (Map<String, String> overrides : combinations) {
+            for (long seed : runSeeds) {
+                runs.add(new Run(runs.size(), overrides, seed));
+            }
+        }
+        return runs;
+    }
+}
@@ -0,0 +1,147 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import utils.GridKernels;
+import utils.Utils;
+
+public final class SweepCLI {
+
+    private SweepCLI() {}
+
+    /**
+     * Runs every run of a sweep file (see {@link Sweep}) headless, several at
+     * a time in this JVM. Each run writes its heatmap dumps to
+     * run-NNNN.log in the output directory (and its checkpoints, if enabled,
+     * to run-NNNN.checkpoint), and a line to runs.csv when it finishes.
+     * Progress and throughput are written to stdout.
+     * 
+     * To branch every run off the same burned-in state, set warm_start in
+     * the base parameters.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Missing argument, please provide a sweep file.");
+            System.exit(1);
+        }
+
+        // with many models running at once, only problems are worth logging
+        Utils.LOGGING_LEVEL = Level.WARNING;
+        Logger log = Utils.getConsoleLogger(SweepCLI.class);
+
+        Sweep sweep = new Sweep(args[0]);
+        List<Sweep.Run> runs = sweep.getRuns(new Parameters(sweep.base).seed);
+        if (!sweep.output.isDirectory() && !sweep.output.mkdirs()) {
+            throw new Exception("Could not create output directory: " + sweep.output);
+        }
+
+        Set<String> keys = new LinkedHashSet<>();
+        for (Sweep.Run run : runs) {
+            keys.addAll(run.overrides.keySet());
+        }
+
+        System.out.format("Running %d runs on %d threads\n", runs.size(), sweep.threads);
+        ExecutorService executor = Executors.newFixedThreadPool(sweep.threads);
+        CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+        for (Sweep.Run run : runs) {
+            completion.submit(new RunTask(sweep, run));
+        }
+
+        long start = System.nanoTime();
+        int failed = 0;
+        try (PrintStream summary = new PrintStream(new FileOutputStream(new File(sweep.output, "runs.csv")))) {
+            summary.print("run,seed,");
+            for (String key : keys) {
+                summary.print(key + ",");
+            }
+            summary.println("status,seconds,rounds,crimes");
+
+            for (int done = 1; done <= runs.size(); done++) {
+                Result result = completion.take().get();
+                Sweep.Run run = result.run;
+                if (result.error != null) {
+                    failed++;
+                    log.log(Level.SEVERE, "Run " + run.id + " failed", result.error);
+                }
+
+                summary.print(run.id + "," + run.seed + ",");
+                for (String key : keys) {
+                    summary.print(run.overrides.getOrDefault(key, "") + ",");
+                }
+                summary.format("%s,%.3f,%d,%d\n", result.error == null ? "done" : "failed", result.seconds,
+                        result.rounds, result.crimes);
+                summary.flush();
+
+                double hours = (System.nanoTime() - start) / 3.6e12;
+                System.out.format("Run %d finished (%d/%d), %.1f runs/hour\n", run.id, done, runs.size(), done / hours);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.format("Done, %d of %d runs failed.\n", failed, runs.size());
+    }
+
+    /**
+     * The outcome of a single run.
+     */
+    private static final class Result {
+        final Sweep.Run run;
+        double seconds;
+        int rounds;
+        long crimes;
+        Exception error;
+
+        Result(Sweep.Run run) {
+            this.run = run;
+        }
+    }
+
+    /**
+     * Runs a model with the parameters of a single run, from start to end.
+     * Failures are reported in the result, so that one run cannot bring
+     * down the rest of the sweep.
+     */
+    private static final class RunTask implements Callable<Result> {
+        private final Sweep sweep;
+        private final Sweep.Run run;
+
+        RunTask(Sweep sweep, Sweep.Run run) {
+            this.sweep = sweep;
+            this.run = run;
+        }
+
+        @Override
+        public Result call() {
+            Result result = new Result(run);
+            long start = System.nanoTime();
+            File file = new File(sweep.output, String.format("run-%04d.log", run.id));
+            try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.format("Run %d, seed %d, overrides %s\n", run.id, run.seed, run.overrides);
+                Parameters parameters = run.createParameters(sweep.base);
+                // runs must not overwrite each other's checkpoints
+                parameters.checkpointFile = new File(sweep.output, String.format("run-%04d.checkpoint", run.id));
+                Model model = new Model(parameters);
+                ModelCLI.run(model, parameters, out);
+                result.rounds = model.world.time;
+                result.crimes = GridKernels.sum(model.world.getCrimeCounts());
+            } catch (Exception e) {
+                result.error = e;
+            }
+            result.seconds = (System.nanoTime() - start) / 1e9;
+            return result;
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package model.action;
 
 /**
- * Possible actions for an agent to take, including the direction
- * in which they are executed (not applicable for WAIT).
+ * Possible actions for an agent to take.
+ * 
+ * Agents return their decisions packed into an int, which holds both the
+ * action and the direction in which it is to be taken (none for WAIT). This
+ * is a value, so decisions can be taken concurrently and stored in a plain
+ * int array without allocating anything. Use {@link #pack(Action, Direction)}
+ * to build one and {@link #kind(int)} and {@link #direction(int)} to take it
+ * apart.
  * 
  * @author Eduardo Pedroni
  *
@@ -10,5 +16,35 @@ package model.action;
 public enum Action {
     MOVE, ROB, WAIT;
 
-    public Direction direction;
+    private static final Action[] ACTIONS = values();
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    /**
+     * The packed form of WAIT, which has no direction.
+     */
+    public static final int PACKED_WAIT = pack(WAIT, null);
+
+    /**
+     * Packs the action and its direction into an int. The action goes in the
+     * lowest two bits and the direction, plus one so that 0 means none, in
+     * the bits above.
+     */
+    public static int pack(Action action, Direction direction) {
+        return action.ordinal() | (direction == null ? 0 : (direction.ordinal() + 1) << 2);
+    }
+
+    /**
+     * Returns the action of a packed action.
+     */
+    public static Action kind(int packed) {
+        return ACTIONS[packed & 3];
+    }
+
+    /**
+     * Returns the direction of a packed action, or null if it has none.
+     */
+    public static Direction direction(int packed) {
+        int direction = packed >>> 2;
+        return direction == 0 ? null : DIRECTIONS[direction - 1];
+    }
 }
@@ -10,9 +10,16 @@ public enum Direction {
     LEFT(-1, 0), RIGHT(1, 0), UP(0, -1), DOWN(0, 1);
 
     public final int x, y;
+    
+    /**
+     * A single bit identifying this direction, so that sets of directions
+     * can be packed into an int.
+     */
+    public final int mask;
 
     private Direction(int x, int y) {
         this.x = x;
         this.y = y;
+        this.mask = 1 << ordinal();
     }
 }
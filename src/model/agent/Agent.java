@@ -1,15 +1,20 @@
 package model.agent;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import model.Model;
 import model.action.Action;
 import model.action.Direction;
+import model.random.RandomStream;
 import utils.Utils;
 
 public class Agent {
-    private Logger log = Utils.getConsoleLogger(this.toString());
+    private static Logger log = Utils.getConsoleLogger(Agent.class);
 
     /**
      * The agent's position.
@@ -23,20 +28,31 @@ public class Agent {
      * Age, education, income and apparentWealth are stored as doubles between 0
      * and 1, where 0 represents the minimum possible value and 1 represents the
      * maximum possible value.
+     * 
+     * These only change when the agent is spawned, see {@link #spawn}. Do not
+     * change them otherwise.
      */
-    public final double age, education, income, apparentWealth;
+    public double age, education, income, apparentWealth;
 
     /**
      * Each agent has an inherent vision range. This value, measured in cells,
      * determines how far the agent is willing to look around when considering
-     * its surroundings.
+     * its surroundings. Like the characteristics above, it is fixed while the
+     * agent is active.
      */
-    public final double visionRange;
+    public double visionRange;
 
     /**
      * The agent's current state. See {@code AgentState} for more information. 
      */
     public AgentState state = AgentState.THINKING;
+    
+    /**
+     * The state in which other agents see this agent. The model publishes the
+     * agent's state once its action has been committed, so that agents deciding
+     * in parallel all see each other as they were at the start of the round.
+     */
+    private AgentState visibleState = AgentState.THINKING;
 
     /**
      * This object exposes the model world through the eyes the agent, taking into
@@ -50,9 +66,11 @@ public class Agent {
     private List<Direction> route;
 
     /**
-     * The agent that this agent is currently interested in robbing, if any.
+     * The agent that this agent is currently interested in robbing, if any,
+     * and the generation of the target when it was picked (see {@link #generation}).
      */
     private Agent targetAgent = null;
+    private int targetGeneration = 0;
 
     /**
      * Keeps track of how long the agent has been waiting for, and how
@@ -60,37 +78,98 @@ public class Agent {
      */
     private int wait = 0, maxWait = 0;
     
+    /**
+     * Source of all the randomness in this agent's decisions. Each agent
+     * has a stream of its own, which is only replaced when a warm-started
+     * model is reseeded.
+     */
+    RandomStream random;
+    
     /**
      * Active agents are in the model, inactive ones have been removed.
      */
     public boolean active = true;
     
+    /**
+     * Agent objects are recycled once they are removed from the model. This
+     * counts how many times the object has been spawned, so that references
+     * to its previous lives can be told apart from references to the current one.
+     */
+    private int generation = 0;
+    
+    /**
+     * The agent's slot in the population, see {@link Population}.
+     */
+    int id = -1;
+    
     /**
      * How many rounds this agent has done. Agents are removed when they
      * reach the round limit.
      */
     private int rounds = 0;
+    
+    /**
+     * True if the agent spent its last action loitering without finding
+     * anyone to rob. An idle agent will keep doing nothing until its
+     * surroundings change or its loiter time runs out.
+     */
+    private boolean idle = false;
+    
+    /**
+     * The agent's current sleep if it is asleep, see {@link WakeUpScheduler}.
+     */
+    WakeUpScheduler.Sleeper sleeper;
 
     /**
-     * Agents are created using AgentFactory.
+     * Agents are created using AgentFactory. They must be spawned before
+     * they are used.
      */
-    Agent(DecisionContext context, double age, double education, double income, double apparentWealth,
-            double visionRange) {
+    Agent(DecisionContext context) {
         this.context = context;
+        context.setAgent(this);
+    }
+    
+    /**
+     * Brings the agent to life with the specified characteristics, as if it
+     * had just been created. This is used both for new agents and for agents
+     * which are recycled after being removed from the model.
+     */
+    void spawn(RandomStream random, double age, double education, double income, double apparentWealth,
+            double visionRange) {
+        this.random = random;
         this.age = age;
         this.education = education;
         this.income = income;
         this.apparentWealth = apparentWealth;
         this.visionRange = visionRange;
+        
+        state = AgentState.THINKING;
+        visibleState = AgentState.THINKING;
+        route = null;
+        targetAgent = null;
+        wait = 0;
+        maxWait = 0;
+        active = true;
+        rounds = 0;
+        idle = false;
+        generation++;
+        context.reset();
     }
 
     /**
-     * Return an action for the model.
+     * Return an action for the model, packed along with the direction in
+     * which it is to be taken (see {@link Action}).
+     * 
+     * This only changes the agent itself, so different agents may act
+     * concurrently as long as the world is left alone in the meantime.
      */
-    public Action act() {
-        log.finest(String.format("State: %s", state));
+    public int act() {
+        if (log.isLoggable(Level.FINEST)) {
+            log.finest(String.format("%s state: %s", this, state));
+        }
 
-        Action action;
+        idle = false;
+        int action;
         switch (state) {
         case LOITERING:
             action = loiter();
@@ -107,12 +186,12 @@ public class Agent {
         default:
             // disaster recovery
             setState(AgentState.THINKING);
-            action = Action.WAIT;
+            action = Action.PACKED_WAIT;
             break;
         }
 
         // update wait counter
-        if (action == Action.WAIT) {
+        if (Action.kind(action) == Action.WAIT) {
             wait--;
         } else {
             wait = maxWait;
@@ -128,16 +207,17 @@ public class Agent {
      * - Check if route is ready;
      * - When it is, switch to moving.
      */
-    private Action think() {
-        log.fine("Requesting random route");
+    private int think() {
         route = context.getRandomRoute();
 
         if (route != null) {
-            log.fine("Got route, moving");
+            if (log.isLoggable(Level.FINE)) {
+                log.fine(String.format("%s got route, moving", this));
+            }
             setState(AgentState.MOVING);
         }
 
-        return Action.WAIT;
+        return Action.PACKED_WAIT;
     }
 
     /**
@@ -148,9 +228,9 @@ public class Agent {
      * - If not and we have waited too long, think;
      * - Otherwise, wait.
      */
-    private Action move() {
-        Action action = Action.WAIT;
-        targetAgent = context.getVictim();
+    private int move() {
+        int action = Action.PACKED_WAIT;
+        setTarget(context.getVictim());
         
         if (targetAgent != null) {
             route = context.getRouteToAgent(targetAgent);
@@ -158,17 +238,18 @@ public class Agent {
         } else if (route.isEmpty()) {
             setState(AgentState.LOITERING);
         } else if (context.isFree(route.get(0))) {
-            action = Action.MOVE;
-            action.direction = route.remove(0);
-        } else if(Model.rand.nextBoolean()) {
-            log.fine("Attempting to dodge obstruction");
+            action = Action.pack(Action.MOVE, route.get(0));
+        } else if(random.nextBoolean()) {
             if (context.dodgeObstruction(route)) {
-                log.fine("Got detour, moving");
-                action = Action.MOVE;
-                action.direction = route.remove(0);
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine(String.format("%s got detour, moving", this));
+                }
+                action = Action.pack(Action.MOVE, route.get(0));
             }
         } else if (wait <= 0) {
-            log.fine("Timed out, thinking");
+            if (log.isLoggable(Level.FINE)) {
+                log.fine(String.format("%s timed out, thinking", this));
+            }
             setState(AgentState.THINKING);
         }
 
@@ -183,23 +264,20 @@ public class Agent {
      * - If not, flip a coin, if heads figure out a detour;
      * - If not and we have waited too long, loiter;
      */
-    private Action stalk() {
-        Action action = Action.WAIT;
-        if (!targetAgent.active || targetAgent.getState() == AgentState.STALKING) {
+    private int stalk() {
+        int action = Action.PACKED_WAIT;
+        if (isTargetGone() || targetAgent.getVisibleState() == AgentState.STALKING) {
             setState(AgentState.LOITERING);
         } else if (route == null || route.isEmpty()) {
             route = context.getRouteToAgent(targetAgent);
         } else if (context.isFree(route.get(0))) {
-            action = Action.MOVE;
-            action.direction = route.remove(0);
+            action = Action.pack(Action.MOVE, route.get(0));
         } else if (context.getOccupant(route.get(0)) == targetAgent
                 && context.conditionsAreRight()) {
-            action = Action.ROB;
-            action.direction = route.get(0);
-        } else if (Model.rand.nextBoolean()) {
+            action = Action.pack(Action.ROB, route.get(0));
+        } else if (random.nextBoolean()) {
             if (context.dodgeObstruction(route)) {
-                action = Action.MOVE;
-                action.direction = route.remove(0);
+                action = Action.pack(Action.MOVE, route.get(0));
             }
         } else if (wait <= 0) {
             setState(AgentState.LOITERING);
@@ -213,15 +291,17 @@ public class Agent {
      * - If not and we have waited long enough, think;
      * - Else, do nothing.
      */
-    private Action loiter() {
-        targetAgent = context.getVictim();
+    private int loiter() {
+        setTarget(context.getVictim());
         if (targetAgent != null) {
             route = context.getRouteToAgent(targetAgent);
             setState(AgentState.STALKING);
         } else if (wait <= 0) {
             setState(AgentState.THINKING);
+        } else {
+            idle = true;
         }
-        return Action.WAIT;
+        return Action.PACKED_WAIT;
     }
     
     /**
@@ -231,12 +311,12 @@ public class Agent {
         state = newState;
         switch (state) {
         case LOITERING:
-            maxWait = AgentState.BASE_LOITER + Model.rand.nextInt(AgentState.MAX_LOITER);
+            maxWait = AgentState.BASE_LOITER + random.nextInt(AgentState.MAX_LOITER);
             wait = maxWait;
             break;
         case MOVING:
         case STALKING:
-            maxWait = AgentState.BASE_TIMEOUT + Model.rand.nextInt(AgentState.MAX_TIMEOUT);
+            maxWait = AgentState.BASE_TIMEOUT + random.nextInt(AgentState.MAX_TIMEOUT);
             wait = maxWait;
             break;
         default:
@@ -245,21 +325,154 @@ public class Agent {
         }
     }
 
+    /**
+     * Called by the model once the agent has taken the step it decided on,
+     * which is always the first step of its route. The step stays in the
+     * route until then, so that a move which fails because someone else got
+     * to the cell first is simply tried again.
+     */
+    public void moved() {
+        route.remove(0);
+    }
+
     public AgentState getState() {
         return state;
     }
-
+    
+    /**
+     * Returns the state in which other agents currently see this agent. Agents
+     * should always use this to assess each other.
+     */
+    public AgentState getVisibleState() {
+        return visibleState;
+    }
+    
+    /**
+     * Makes the agent's current state visible to other agents. The model calls
+     * this when it commits the agent's action.
+     */
+    public void publishState() {
+        visibleState = state;
+    }
+    
     @Override
     public String toString() {
         return "Agent@" + Integer.toHexString(hashCode());
     }
 
+    public int getId() {
+        return id;
+    }
+
     public int getRounds() {
         return rounds;
     }
+    
+    public boolean isIdle() {
+        return idle;
+    }
+    
+    /**
+     * Returns how many more rounds the agent is willing to wait before it
+     * changes its plans.
+     */
+    public int getWait() {
+        return wait;
+    }
+    
+    /**
+     * Fast-forwards an idle agent by the specified number of rounds, as if it
+     * had waited in each of them. This is used when the model lets idle agents
+     * sleep instead of polling them every round.
+     */
+    void skipRounds(int skipped) {
+        if (!idle) {
+            throw new IllegalStateException("Only idle agents can skip rounds");
+        }
+        wait -= skipped;
+        rounds += skipped;
+    }
 
+    /**
+     * Returns the agent that this agent is interested in robbing, or null if
+     * there is none or if it has been removed from the model since.
+     */
     public Agent getTarget() {
-        return targetAgent;
+        return isTargetGone() ? null : targetAgent;
+    }
+
+    void setTarget(Agent targetAgent) {
+        this.targetAgent = targetAgent;
+        this.targetGeneration = targetAgent == null ? 0 : targetAgent.generation;
+    }
+    
+    /**
+     * Returns true if there is no target, or if it is no longer in the model.
+     * The target may even have been recycled into a different agent.
+     */
+    private boolean isTargetGone() {
+        return targetAgent == null || !targetAgent.active || targetAgent.generation != targetGeneration;
+    }
+
+    /**
+     * Writes everything about this agent, except for its target and slot in
+     * the population, which the caller writes as agent ids.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeDouble(age);
+        out.writeDouble(education);
+        out.writeDouble(income);
+        out.writeDouble(apparentWealth);
+        out.writeDouble(visionRange);
+        out.writeLong(random.getSeed());
+        out.writeLong(random.getGamma());
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeByte(state.ordinal());
+        out.writeByte(visibleState.ordinal());
+        out.writeInt(wait);
+        out.writeInt(maxWait);
+        out.writeInt(rounds);
+        out.writeBoolean(idle);
+        if (route == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(route.size());
+            for (Direction direction : route) {
+                out.writeByte(direction.ordinal());
+            }
+        }
+        out.writeInt(context.getRandomDestination());
+    }
+
+    /**
+     * Reads an agent written by {@link #write(DataOutput)}, which picks up
+     * exactly where the written one was. The agent is not in the world or
+     * the population yet, and has no target.
+     */
+    static Agent read(DataInput in, DecisionContext context) throws IOException {
+        double age = in.readDouble(), education = in.readDouble(), income = in.readDouble(),
+                apparentWealth = in.readDouble(), visionRange = in.readDouble();
+        RandomStream random = new RandomStream(in.readLong(), in.readLong());
+        Agent agent = new Agent(context);
+        agent.spawn(random, age, education, income, apparentWealth, visionRange);
+        agent.x = in.readInt();
+        agent.y = in.readInt();
+        agent.state = AgentState.values()[in.readByte()];
+        agent.visibleState = AgentState.values()[in.readByte()];
+        agent.wait = in.readInt();
+        agent.maxWait = in.readInt();
+        agent.rounds = in.readInt();
+        agent.idle = in.readBoolean();
+        int routeLength = in.readInt();
+        if (routeLength >= 0) {
+            agent.route = new LinkedList<>();
+            for (int i = 0; i < routeLength; i++) {
+                agent.route.add(Direction.values()[in.readByte()]);
+            }
+        }
+        context.setRandomDestination(in.readInt());
+        return agent;
     }
 
 }
@@ -1,13 +1,15 @@
 package model.agent;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import model.Model;
 import model.Parameters;
 import model.pathfinding.PathFinder;
-import model.world.Cell;
+import model.random.RandomStream;
+import model.random.RandomStreams;
 import model.world.WorldWrapper;
 import utils.Utils;
 
@@ -26,39 +28,107 @@ public class AgentFactory {
     }
 
     /**
-     * Adds a bunch of agents to the world and returns a list of all the
-     * agents created.
+     * Adds a bunch of agents to the world and the population.
      * 
      * TODO sort out agent, education and income distributions, should use
      * something like poisson instead of uniform
      */
-    public static List<Agent> populate(PathFinder pathFinder, WorldWrapper worldWrapper, Parameters parameters) {
-        LinkedList<Agent> agents = new LinkedList<>();
+    public static void populate(PathFinder pathFinder, WorldWrapper worldWrapper, Parameters parameters,
+            Population population, RandomStreams random) {
         log.info("Creating agents");
         for (int i = 0; i < parameters.agents; i++) {
-            agents.add(createAgent(pathFinder, worldWrapper, parameters));
+            createAgent(pathFinder, worldWrapper, parameters, population, random);
         }
-        return agents;
     }
     
     /**
-     * Creates a single agent, adds it to the world and returns it.
+     * Creates a single agent, adds it to the world and the population and
+     * returns it. The agent gets a random stream of its own, and its
+     * characteristics and position are drawn from the relevant subsystem
+     * streams.
+     * 
+     * If the population has retired agents, one of them is spawned again
+     * instead of allocating a new one. This makes no difference to the agent.
      */
-    public static Agent createAgent(PathFinder pathFinder, WorldWrapper worldWrapper, Parameters parameters) {
-        DecisionContext context = new DecisionContext(worldWrapper, pathFinder, parameters);
-        Agent agent = new Agent(context, Model.rand.nextDouble(), Model.rand.nextDouble(), Model.rand.nextDouble(),
-                Model.rand.nextDouble(), (Model.rand.nextDouble() * 4) + 4);
-        context.setAgent(agent);
+    public static Agent createAgent(PathFinder pathFinder, WorldWrapper worldWrapper, Parameters parameters,
+            Population population, RandomStreams random) {
+        Agent agent = population.reuse();
+        if (agent == null) {
+            agent = new Agent(new DecisionContext(worldWrapper, pathFinder, parameters, population));
+        }
+        RandomStream attributes = random.get(RandomStreams.Subsystem.ATTRIBUTES);
+        agent.spawn(random.newAgentStream(), attributes.nextDouble(), attributes.nextDouble(),
+                attributes.nextDouble(), attributes.nextDouble(), (attributes.nextDouble() * 4) + 4);
 
         // find an available cell
-        Cell cell = worldWrapper.getRandomCell(c -> worldWrapper.isFree(c.x, c.y));
+        int cell = worldWrapper.getRandomFreeCell(random.get(RandomStreams.Subsystem.PLACEMENT));
+        if (cell < 0) {
+            throw new IllegalStateException("No free cells left in the world to place a new agent");
+        }
 
         // put the agent in it
-        agent.x = cell.x;
-        agent.y = cell.y;
-        cell.occupant = agent;
+        agent.x = worldWrapper.getX(cell);
+        agent.y = worldWrapper.getY(cell);
+        worldWrapper.setOccupant(agent.x, agent.y, agent);
+        population.add(agent);
 
-        log.finest("Created new agent at [" + agent.x + "," + agent.y + "]");
+        if (log.isLoggable(Level.FINEST)) {
+            log.finest("Created new agent at [" + agent.x + "," + agent.y + "]");
+        }
         return agent;
     }
+
+    /**
+     * Gives every agent in the population a new stream, split off the provided
+     * streams in order of id, as if they had just been created.
+     */
+    public static void reseedAgents(Population population, RandomStreams random) {
+        for (int id = 0; id < population.size(); id++) {
+            population.get(id).random = random.newAgentStream();
+        }
+    }
+
+    /**
+     * Writes every agent in the population, in order of id, followed by their
+     * targets. Targets are written as agent ids, or -1 for no target (which
+     * includes targets which have already been removed from the model).
+     */
+    public static void writeAgents(Population population, DataOutput out) throws IOException {
+        out.writeInt(population.size());
+        for (int id = 0; id < population.size(); id++) {
+            population.get(id).write(out);
+        }
+        for (int id = 0; id < population.size(); id++) {
+            Agent target = population.get(id).getTarget();
+            out.writeInt(target == null ? -1 : target.id);
+        }
+    }
+
+    /**
+     * Reads the agents written by {@link #writeAgents(Population, DataOutput)}
+     * and adds them to the world and the (empty) population, with the same ids.
+     */
+    public static void readAgents(PathFinder pathFinder, WorldWrapper worldWrapper, Parameters parameters,
+            Population population, DataInput in) throws IOException {
+        if (population.size() != 0) {
+            throw new IllegalStateException("Agents can only be read into an empty population");
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Agent agent = Agent.read(in, new DecisionContext(worldWrapper, pathFinder, parameters, population));
+            if (!worldWrapper.isFree(agent.x, agent.y)) {
+                throw new IOException("Agent " + i + " is not on a free cell: [" + agent.x + ", " + agent.y + "]");
+            }
+            worldWrapper.setOccupant(agent.x, agent.y, agent);
+            population.add(agent);
+        }
+
+        for (int id = 0; id < count; id++) {
+            int target = in.readInt();
+            if (target >= 0) {
+                population.get(id).setTarget(population.get(target));
+            }
+        }
+        log.info("Restored " + count + " agents");
+    }
 }
@@ -1,13 +1,16 @@
 package model.agent;
 
+import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import model.Model;
 import model.Parameters;
 import model.action.Direction;
 import model.pathfinding.PathFinder;
-import model.world.Cell;
+import model.world.AgentScan;
 import model.world.WorldWrapper;
 import utils.Utils;
 
@@ -17,17 +20,36 @@ import utils.Utils;
  */
 public class DecisionContext {
     private static Logger log = Utils.getConsoleLogger(DecisionContext.class);
+    private static final ToDoubleFunction<Agent> WEALTH = a -> a.apparentWealth;
     private WorldWrapper world;
     private Agent agent;
     private PathFinder pathFinder;
     private Parameters parameters;
+    private Population population;
     
-    private Cell randomDestination = null;
+    /**
+     * The deterministic part of the agent's inclination to rob, see
+     * {@link #wouldRobAgent(Agent)}. This is a lower bound on the inclination,
+     * since the random part can only make it higher.
+     */
+    private double minWouldRob;
+    
+    private int randomDestination = -1;
+    
+    /**
+     * The perception queries which run every round reuse this scan and these
+     * filters, so that looking around allocates nothing.
+     */
+    private final AgentScan agentScan;
+    private final Function<Agent, Boolean> witnessFilter = this::isWitness;
+    private final Function<Agent, Boolean> victimFilter = this::wouldRobAgent;
     
-    DecisionContext(WorldWrapper worldWrapper, PathFinder pathFinder, Parameters parameters) {
+    DecisionContext(WorldWrapper worldWrapper, PathFinder pathFinder, Parameters parameters, Population population) {
         this.world = worldWrapper;
         this.pathFinder = pathFinder;
         this.parameters = parameters;
+        this.population = population;
+        this.agentScan = worldWrapper.createAgentScan();
     }
 
     /**
@@ -37,13 +59,43 @@ public class DecisionContext {
     void setAgent(Agent agent) {
         if (this.agent == null) {
             this.agent = agent;
-            // get the first random route here (or at least get the computation started)
-            randomDestination = world.getRandomCell(c -> !world.isMovementObstruction(c.x, c.y));
         } else {
             throw new IllegalStateException("RTFM!");
         }
     }
 
+    /**
+     * Forgets everything about the agent's previous life. Called whenever
+     * the agent is spawned, once its characteristics are set. The first
+     * random destination is drawn when the agent first asks for a route.
+     */
+    void reset() {
+        computeMinWouldRob();
+        randomDestination = -1;
+    }
+
+    /**
+     * Returns the cell id of the random destination being routed to, or -1 if
+     * there is none. Used for checkpoints.
+     */
+    int getRandomDestination() {
+        return randomDestination;
+    }
+
+    void setRandomDestination(int randomDestination) {
+        this.randomDestination = randomDestination;
+    }
+
+    private void computeMinWouldRob() {
+        // same expression as in wouldRobAgent, minus the random term, so that it is never larger
+        minWouldRob = parameters.wouldRobRandomWeight < 0 || parameters.totalWouldRobWeight <= 0
+                ? Double.NEGATIVE_INFINITY
+                : ((agent.age * parameters.ageWeight) 
+                + (agent.education * parameters.educationWeight)
+                + (agent.income * parameters.incomeWeight))
+                / parameters.totalWouldRobWeight;
+    }
+
     /**
      * Returns true if the cell at the specified position is of a type that
      * obstructs movement. This does not take into account cell occupancy; in
@@ -92,7 +144,15 @@ public class DecisionContext {
      * false.
      */
     public boolean isFree(Direction direction) {
-        return world.isFree(agent.x + direction.x, agent.y + direction.y);
+        return (getFreeDirections() & direction.mask) != 0;
+    }
+    
+    /**
+     * Returns the directions in which the agent can step right now, as a mask
+     * of {@link Direction#mask} bits.
+     */
+    public int getFreeDirections() {
+        return world.getFreeDirections(agent.x, agent.y);
     }
 
     /**
@@ -111,7 +171,7 @@ public class DecisionContext {
     }
 
     /**
-     * Returns a list of every cell the agent sees if it looks at the specified
+     * Returns a list of the ids of every cell the agent sees if it looks at the specified
      * coordinates. This takes into account view obstructions; the agent cannot
      * see past cells which obstruct its view. The first cell in the list is the
      * cell where the agent is located. If no obstructions are found, the
@@ -122,7 +182,7 @@ public class DecisionContext {
      * If the specified position is not within the bounds of the map, an empty
      * list is returned.
      */
-    public List<Cell> look(int x, int y) {
+    public List<Integer> look(int x, int y) {
         return world.look(agent.x, agent.y, x, y, agent.visionRange);
     }
 
@@ -131,7 +191,7 @@ public class DecisionContext {
      * takes into account visibility obstructions and the agent's vision range.
      */
     public boolean isVisible(int x, int y) {
-        return world.isVisible(agent.x, agent.y, x, y, agent.visionRange);
+        return agentScan.isVisible(agent.x, agent.y, x, y, agent.visionRange);
     }
     
     /**
@@ -147,7 +207,16 @@ public class DecisionContext {
      * proximity (nearest first).
      */
     public List<Agent> getWitnessesInSight() {
-        return world.getAgentsAround(agent.x, agent.y, agent.visionRange, a -> a.getState() != AgentState.STALKING);
+        return agentScan.collect(agent.x, agent.y, agent.visionRange, witnessFilter, new LinkedList<>());
+    }
+    
+    /**
+     * Counts the witnesses around this agent, but stops counting once the
+     * limit is reached. Returns the number of witnesses or the limit, whichever
+     * is smallest.
+     */
+    public int countWitnessesInSight(int limit) {
+        return agentScan.count(agent.x, agent.y, agent.visionRange, witnessFilter, limit);
     }
     
     /**
@@ -155,22 +224,28 @@ public class DecisionContext {
      * criminal preconditions, in descending order of proximity (nearest first).
      */
     public List<Agent> getPotentialVictims() {
-        return world.getAgentsAround(agent.x, agent.y, agent.visionRange, this::wouldRobAgent);
+        return agentScan.collect(agent.x, agent.y, agent.visionRange, victimFilter, new LinkedList<>());
     }
     
     /**
      * Returns a potential victim, if any are around. Otherwise, returns null.
+     * 
+     * The wealthiest potential victim is chosen, and ties go to the nearest one.
+     * This is done in a single pass, but every agent in sight is still considered
+     * exactly once, in order of proximity, as in {@link #getPotentialVictims()}.
+     * 
+     * If the agent could not rob even the wealthiest agent in the model, the
+     * surroundings are not scanned at all, and no random numbers are drawn.
      */
     public Agent getVictim() {
-        // TODO could optimise this by first checking if the agent is likely to commit crimes at all
-        List<Agent> victims = getPotentialVictims();
-        if (victims.isEmpty()) {
+        if (!couldRobAnyone()) {
             return null;
-        } else {
-            victims.sort((a1, a2) -> a1.apparentWealth > a2.apparentWealth ? -1 : a1.apparentWealth < a2.apparentWealth ? 1 : 0);
-            log.fine(String.format("Found victim for %s: %s", agent, victims.get(0)));
-            return victims.get(0);
         }
+        Agent victim = agentScan.findBest(agent.x, agent.y, agent.visionRange, victimFilter, WEALTH);
+        if (victim != null && log.isLoggable(Level.FINE)) {
+            log.fine(String.format("Found victim for %s: %s", agent, victim));
+        }
+        return victim;
     }
 
     /**
@@ -191,15 +266,19 @@ public class DecisionContext {
      */
     public List<Direction> getRandomRoute() {
         // if we are not waiting for a route, request one
-        if (randomDestination == null) {
-            randomDestination = world.getRandomCell(c -> !world.isMovementObstruction(c.x, c.y));
-            log.finest(String.format("New random destination: [%s, %s]", randomDestination.x, randomDestination.y));
+        if (randomDestination < 0) {
+            // never -1, the agent is standing on a walkable cell after all
+            randomDestination = world.getRandomWalkableCell(agent.random);
+            if (log.isLoggable(Level.FINEST)) {
+                log.finest(String.format("New random destination for %s: [%s, %s]", agent,
+                        world.getX(randomDestination), world.getY(randomDestination)));
+            }
         }
         
-        List<Direction> route = getRoute(randomDestination.x, randomDestination.y);
+        List<Direction> route = getRoute(world.getX(randomDestination), world.getY(randomDestination));
 
         if (route != null) {
-            randomDestination = null;
+            randomDestination = -1;
         }
         
         return route;
@@ -235,19 +314,45 @@ public class DecisionContext {
         return world.getOccupant(agent.x + direction.x, agent.y + direction.y);
     }
     
+    /**
+     * Returns true if there is at least one active agent in the model that this
+     * agent could rob, given a favourable random draw. If this returns false,
+     * {@link #wouldRobAgent(Agent)} is guaranteed to return false for everyone.
+     */
+    public boolean couldRobAnyone() {
+        return minWouldRob < population.getMaxApparentWealth();
+    }
+    
     /**
      * Returns true if this agent would rob the provided victim, false otherwise.
+     * 
+     * A random number is drawn from the agent's generator only if the victim is wealthy
+     * enough for the agent to possibly rob it; hopeless candidates are turned
+     * down without consuming any randomness. The sequence of draws is therefore
+     * still fully determined by the seed.
      */
     public boolean wouldRobAgent(Agent victim) {
+        if (minWouldRob >= victim.apparentWealth) {
+            return false;
+        }
+        
         // this is the agent's inclination to rob
         double wouldRob = ((agent.age * parameters.ageWeight) 
                 + (agent.education * parameters.educationWeight)
                 + (agent.income * parameters.incomeWeight)
-                + (Model.rand.nextDouble() * parameters.wouldRobRandomWeight)) 
+                + (agent.random.nextDouble() * parameters.wouldRobRandomWeight)) 
                 / parameters.totalWouldRobWeight;
         
         return wouldRob < victim.apparentWealth 
-                && victim.getState() != AgentState.STALKING;
+                && victim.getVisibleState() != AgentState.STALKING;
+    }
+    
+    /**
+     * Returns true if the provided agent would witness a crime. Agents who are
+     * themselves stalking someone are too busy to notice.
+     */
+    private boolean isWitness(Agent other) {
+        return other.getVisibleState() != AgentState.STALKING;
     }
     
     /**
@@ -256,10 +361,10 @@ public class DecisionContext {
      */
     public boolean conditionsAreRight() {
         double lightThreshold = ((parameters.crimeLightThreshold * parameters.lightWeight)
-                + (Model.rand.nextDouble() * parameters.lightRandomWeight))
+                + (agent.random.nextDouble() * parameters.lightRandomWeight))
                 / parameters.totalConditionsWeight;
         
         return getLight() < lightThreshold 
-                && getWitnessesInSight().size() <= parameters.maxWitnessesInSight;
+                && countWitnessesInSight(parameters.maxWitnessesInSight + 1) <= parameters.maxWitnessesInSight;
     }
 }
@@ -0,0 +1,130 @@
+package model.agent;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the agents which are currently active in the model, along
+ * with aggregate information about them which the agents use to cut their
+ * decisions short.
+ *
+ * Agents are added by the AgentFactory when they are created, and must be
+ * removed by the model when they are retired. Every active agent has a dense
+ * id between 0 and {@link #size()} - 1, which is its slot in the registry.
+ * Removal moves the agent in the last slot into the freed one, so ids are
+ * only stable for as long as no agent is removed. Removed agents are kept
+ * aside to be recycled by the AgentFactory.
+ */
+public class Population {
+
+    private Agent[] agents = new Agent[64];
+    private int size = 0;
+
+    /**
+     * Highest apparent wealth of the active agents, and how many of them have
+     * it. The maximum is only looked for again when the last agent with it is
+     * removed, so agents come and go without boxing anything.
+     */
+    private double maxWealth = Double.NEGATIVE_INFINITY;
+    private int maxWealthCount = 0;
+
+    /**
+     * Agents which have been removed, kept so that they can be spawned again
+     * rather than allocated from scratch.
+     */
+    private Agent[] retired = new Agent[64];
+    private int retiredCount = 0;
+
+    /**
+     * Registers a newly created agent.
+     */
+    void add(Agent agent) {
+        if (size == agents.length) {
+            agents = Arrays.copyOf(agents, size * 2);
+        }
+        agent.id = size;
+        agents[size++] = agent;
+        if (agent.apparentWealth > maxWealth) {
+            maxWealth = agent.apparentWealth;
+            maxWealthCount = 1;
+        } else if (agent.apparentWealth == maxWealth) {
+            maxWealthCount++;
+        }
+    }
+
+    /**
+     * Unregisters an agent which has been removed from the model. Removing an
+     * agent which is not in the population is an error.
+     */
+    public void remove(Agent agent) {
+        if (agent.id < 0 || agent.id >= size || agents[agent.id] != agent) {
+            throw new IllegalStateException("Agent is not in the population: " + agent);
+        }
+        Agent last = agents[--size];
+        agents[agent.id] = last;
+        last.id = agent.id;
+        agents[size] = null;
+        agent.id = -1;
+
+        if (agent.apparentWealth == maxWealth && --maxWealthCount == 0) {
+            findMaxWealth();
+        }
+
+        if (retiredCount == retired.length) {
+            retired = Arrays.copyOf(retired, retiredCount * 2);
+        }
+        retired[retiredCount++] = agent;
+    }
+
+    /**
+     * Looks for the highest apparent wealth among the active agents.
+     */
+    private void findMaxWealth() {
+        maxWealth = Double.NEGATIVE_INFINITY;
+        maxWealthCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (agents[i].apparentWealth > maxWealth) {
+                maxWealth = agents[i].apparentWealth;
+                maxWealthCount = 1;
+            } else if (agents[i].apparentWealth == maxWealth) {
+                maxWealthCount++;
+            }
+        }
+    }
+
+    /**
+     * Returns an agent which has been removed from the population, to be
+     * spawned again, or null if there are none. The agent is no longer kept
+     * here afterwards.
+     */
+    Agent reuse() {
+        if (retiredCount == 0) {
+            return null;
+        }
+        Agent agent = retired[--retiredCount];
+        retired[retiredCount] = null;
+        return agent;
+    }
+
+    /**
+     * Returns the agent with the specified id.
+     */
+    public Agent get(int id) {
+        return agents[id];
+    }
+
+    /**
+     * Returns the highest apparent wealth of all active agents, or negative
+     * infinity if there are no agents. No agent can be robbed by someone whose
+     * inclination to rob is at least this high.
+     */
+    public double getMaxApparentWealth() {
+        return maxWealth;
+    }
+
+    /**
+     * Returns the number of active agents.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,352 @@
+package model.agent;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import utils.Utils;
+
+/**
+ * Keeps idle agents asleep until something happens that might make them
+ * change their minds.
+ *
+ * An idle agent is loitering and found no one to rob during its last action.
+ * Until either another agent shows up within its vision range or its loiter
+ * time runs out, acting again would (almost) certainly produce the same
+ * outcome, so the model can leave it out of the round altogether. Sleeping
+ * agents are still in the world, so they can be seen and robbed as usual.
+ *
+ * Sleepers register interest in the square around them covered by their
+ * vision range, which is indexed by a coarse grid of buckets. When the model
+ * reports an event at a cell (an agent appears there, moves there or stops
+ * stalking there), every sleeper which can see that cell is woken up. Woken
+ * agents rejoin the model at the start of the following round and are
+ * fast-forwarded through the rounds they slept, as if they had waited.
+ *
+ * Agents also weigh the light of the cells around them, which changes when a
+ * lighting schedule moves to a new phase of natural light or switches a group
+ * of lamps. The model then reports the rectangle of cells whose light
+ * changed, and every sleeper which can see any of them is woken up as well:
+ * the whole map for natural light, or the reach of the group of lamps.
+ *
+ * Note that this is not strictly equivalent to polling every round: a polling
+ * agent draws new random numbers in every round when assessing its potential
+ * victims, whereas a sleeping agent only reconsiders them when they move.
+ */
+public class WakeUpScheduler {
+    /**
+     * Side length of the buckets in the trigger grid, in cells.
+     */
+    public static final int BUCKET_SIZE = 8;
+
+    /**
+     * A sleep of an agent. Sleepers are recycled once they leave the timer
+     * queue, which is the last place they can be referenced from, so that
+     * putting agents to sleep allocates nothing.
+     */
+    static final class Sleeper {
+        Agent agent;
+        int round, wakeRound;
+        long order;
+        boolean awake;
+
+        Sleeper set(Agent agent, int round, int wakeRound, long order) {
+            this.agent = agent;
+            this.round = round;
+            this.wakeRound = wakeRound;
+            this.order = order;
+            this.awake = false;
+            return this;
+        }
+    }
+
+    private final int roundTimeOut;
+    private final int xBuckets, yBuckets;
+    private final List<List<Sleeper>> buckets;
+    private final List<Sleeper> woken = new ArrayList<>();
+    // ties are broken by the order in which agents fell asleep, to keep things reproducible
+    private final PriorityQueue<Sleeper> timers = new PriorityQueue<>((s1, s2) -> s1.wakeRound != s2.wakeRound
+            ? Integer.compare(s1.wakeRound, s2.wakeRound) : Long.compare(s1.order, s2.order));
+    private final ArrayDeque<Sleeper> pool = new ArrayDeque<>();
+    private long sleepCount = 0;
+    private int asleep = 0;
+
+    public WakeUpScheduler(int xDimension, int yDimension, int roundTimeOut) {
+        this.roundTimeOut = roundTimeOut;
+        this.xBuckets = (xDimension + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        this.yBuckets = (yDimension + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        // buckets are created when a sleeper first covers them, there are a lot of them on large maps
+        this.buckets = new ArrayList<>(Collections.nCopies(xBuckets * yBuckets, null));
+    }
+
+    /**
+     * Puts the provided agent to sleep. The agent must be idle and must have
+     * just acted in the specified round.
+     *
+     * The agent is woken up by its timer in the round where it would have
+     * either stopped loitering or reached the round limit, whichever comes
+     * first.
+     */
+    public void sleep(Agent agent, int round) {
+        if (!agent.isIdle()) {
+            throw new IllegalStateException("Only idle agents can sleep: " + agent);
+        }
+        int loiterRounds = Math.max(1, agent.getWait() + 1);
+        int timeOutRounds = Math.max(1, roundTimeOut - agent.getRounds() + 1);
+        Sleeper sleeper = newSleeper().set(agent, round, round + Math.min(loiterRounds, timeOutRounds), sleepCount++);
+
+        agent.sleeper = sleeper;
+        asleep++;
+        timers.add(sleeper);
+        addToBuckets(sleeper);
+    }
+
+    /**
+     * Removes an agent from the scheduler without waking it up, if it is
+     * sleeping. This must be called when an agent is removed from the model.
+     */
+    public void remove(Agent agent) {
+        Sleeper sleeper = agent.sleeper;
+        if (sleeper != null) {
+            agent.sleeper = null;
+            asleep--;
+            if (!sleeper.awake) {
+                sleeper.awake = true;
+                removeFromBuckets(sleeper);
+            }
+        }
+    }
+
+    /**
+     * Reports that something has changed at the specified cell. Every sleeping
+     * agent which can see that cell is scheduled to wake up in the next round.
+     */
+    public void notify(int x, int y) {
+        int bucketX = x / BUCKET_SIZE, bucketY = y / BUCKET_SIZE;
+        if (bucketX < 0 || bucketX >= xBuckets || bucketY < 0 || bucketY >= yBuckets) {
+            return;
+        }
+
+        List<Sleeper> bucket = buckets.get(bucketX * yBuckets + bucketY);
+        if (bucket == null) {
+            return;
+        }
+        int first = woken.size();
+        for (Sleeper sleeper : bucket) {
+            Agent agent = sleeper.agent;
+            if ((agent.x != x || agent.y != y)
+                    && Utils.getDistance(x - agent.x, y - agent.y) <= agent.visionRange) {
+                sleeper.awake = true;
+                woken.add(sleeper);
+            }
+        }
+        // can't do this while iterating over the bucket above
+        for (int i = first; i < woken.size(); i++) {
+            removeFromBuckets(woken.get(i));
+        }
+    }
+
+    /**
+     * Reports that something has changed in every cell of the specified
+     * rectangle, inclusive, such as their light. Every sleeping agent which
+     * can see any of those cells, including its own, is scheduled to wake up
+     * in the next round.
+     */
+    public void notify(int minX, int minY, int maxX, int maxY) {
+        int minBucketX = Math.max(0, minX / BUCKET_SIZE), maxBucketX = Math.min(xBuckets - 1, maxX / BUCKET_SIZE);
+        int minBucketY = Math.max(0, minY / BUCKET_SIZE), maxBucketY = Math.min(yBuckets - 1, maxY / BUCKET_SIZE);
+        int first = woken.size();
+        for (int bucketX = minBucketX; bucketX <= maxBucketX && asleep > 0; bucketX++) {
+            for (int bucketY = minBucketY; bucketY <= maxBucketY; bucketY++) {
+                List<Sleeper> bucket = buckets.get(bucketX * yBuckets + bucketY);
+                if (bucket == null) {
+                    continue;
+                }
+                for (Sleeper sleeper : bucket) {
+                    // a sleeper covers several buckets, but only needs waking once
+                    Agent agent = sleeper.agent;
+                    int deltaX = agent.x < minX ? minX - agent.x : agent.x > maxX ? agent.x - maxX : 0;
+                    int deltaY = agent.y < minY ? minY - agent.y : agent.y > maxY ? agent.y - maxY : 0;
+                    if (!sleeper.awake && Utils.getDistance(deltaX, deltaY) <= agent.visionRange) {
+                        sleeper.awake = true;
+                        woken.add(sleeper);
+                    }
+                }
+            }
+        }
+        // can't do this while iterating over the buckets above
+        for (int i = first; i < woken.size(); i++) {
+            removeFromBuckets(woken.get(i));
+        }
+    }
+
+    /**
+     * Wakes up every agent which was notified in the previous round, followed
+     * by every agent whose timer runs out in the specified round, and passes
+     * them to the provided callback in that order. Woken agents are
+     * fast-forwarded to the start of the specified round.
+     */
+    public void wakeUp(int round, Consumer<Agent> awake) {
+        for (Sleeper sleeper : woken) {
+            wakeUp(sleeper, round, awake);
+        }
+        woken.clear();
+
+        while (!timers.isEmpty() && timers.peek().wakeRound <= round) {
+            Sleeper sleeper = timers.remove();
+            if (!sleeper.awake) {
+                sleeper.awake = true;
+                removeFromBuckets(sleeper);
+                wakeUp(sleeper, round, awake);
+            }
+            sleeper.agent = null;
+            pool.push(sleeper);
+        }
+    }
+
+    private void wakeUp(Sleeper sleeper, int round, Consumer<Agent> awake) {
+        // only if this is still the agent's current sleep, it may have been removed in the meantime
+        if (sleeper.agent.sleeper == sleeper) {
+            sleeper.agent.sleeper = null;
+            asleep--;
+            sleeper.agent.skipRounds(round - sleeper.round - 1);
+            awake.accept(sleeper.agent);
+        }
+    }
+
+    /**
+     * Moves every sleep by the specified number of rounds, for when the round
+     * counter of the model is reset. Sleeps keep their length and their order.
+     */
+    public void shiftRounds(int offset) {
+        Set<Sleeper> shifted = Collections.newSetFromMap(new IdentityHashMap<>());
+        shifted.addAll(timers);
+        shifted.addAll(woken);
+        for (Sleeper sleeper : shifted) {
+            sleeper.round += offset;
+            sleeper.wakeRound += offset;
+        }
+    }
+
+    /**
+     * Returns the number of agents currently asleep, including those which
+     * will wake up at the start of the next round.
+     */
+    public int size() {
+        return asleep;
+    }
+
+    /**
+     * Writes every agent currently asleep, by id, along with the order in
+     * which those which were notified wake up.
+     *
+     * Only the sleepers which are still current are written. The order of the
+     * buckets and of the timers follows from the order in which the agents fell
+     * asleep, so both can be rebuilt from it.
+     */
+    public void write(DataOutput out) throws IOException {
+        List<Sleeper> current = new ArrayList<>();
+        // every current sleeper is in the timer queue or has been notified, or both
+        for (Sleeper sleeper : timers) {
+            if (sleeper.agent != null && sleeper.agent.sleeper == sleeper) {
+                current.add(sleeper);
+            }
+        }
+        for (Sleeper sleeper : woken) {
+            if (sleeper.agent.sleeper == sleeper && !current.contains(sleeper)) {
+                current.add(sleeper);
+            }
+        }
+        current.sort((s1, s2) -> Long.compare(s1.order, s2.order));
+        out.writeLong(sleepCount);
+        out.writeInt(current.size());
+        for (Sleeper sleeper : current) {
+            out.writeInt(sleeper.agent.getId());
+            out.writeInt(sleeper.round);
+            out.writeInt(sleeper.wakeRound);
+            out.writeLong(sleeper.order);
+            out.writeBoolean(sleeper.awake);
+        }
+
+        int wokenCount = 0;
+        for (Sleeper sleeper : woken) {
+            if (sleeper.agent.sleeper == sleeper) {
+                wokenCount++;
+            }
+        }
+        out.writeInt(wokenCount);
+        for (Sleeper sleeper : woken) {
+            if (sleeper.agent.sleeper == sleeper) {
+                out.writeInt(sleeper.agent.getId());
+            }
+        }
+    }
+
+    /**
+     * Reads the sleepers written by {@link #write(DataOutput)} into this
+     * scheduler, which must be empty. Agent ids are resolved against the
+     * provided population.
+     */
+    public void read(DataInput in, Population population) throws IOException {
+        if (asleep > 0) {
+            throw new IllegalStateException("Sleepers can only be read into an empty scheduler");
+        }
+        sleepCount = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Agent agent = population.get(in.readInt());
+            Sleeper sleeper = newSleeper().set(agent, in.readInt(), in.readInt(), in.readLong());
+            sleeper.awake = in.readBoolean();
+            agent.sleeper = sleeper;
+            asleep++;
+            // notified sleepers are already out of the buckets, and their timers have no effect
+            if (!sleeper.awake) {
+                timers.add(sleeper);
+                addToBuckets(sleeper);
+            }
+        }
+
+        int wokenCount = in.readInt();
+        for (int i = 0; i < wokenCount; i++) {
+            woken.add(population.get(in.readInt()).sleeper);
+        }
+    }
+
+    private Sleeper newSleeper() {
+        return pool.isEmpty() ? new Sleeper() : pool.pop();
+    }
+
+    private void addToBuckets(Sleeper sleeper) {
+        int range = (int) Math.floor(sleeper.agent.visionRange);
+        int maxX = Math.min(xBuckets - 1, (sleeper.agent.x + range) / BUCKET_SIZE);
+        int maxY = Math.min(yBuckets - 1, (sleeper.agent.y + range) / BUCKET_SIZE);
+        for (int bucketX = Math.max(0, (sleeper.agent.x - range) / BUCKET_SIZE); bucketX <= maxX; bucketX++) {
+            for (int bucketY = Math.max(0, (sleeper.agent.y - range) / BUCKET_SIZE); bucketY <= maxY; bucketY++) {
+                int index = bucketX * yBuckets + bucketY;
+                if (buckets.get(index) == null) {
+                    buckets.set(index, new ArrayList<>());
+                }
+                buckets.get(index).add(sleeper);
+            }
+        }
+    }
+
+    private void removeFromBuckets(Sleeper sleeper) {
+        int range = (int) Math.floor(sleeper.agent.visionRange);
+        int maxX = Math.min(xBuckets - 1, (sleeper.agent.x + range) / BUCKET_SIZE);
+        int maxY = Math.min(yBuckets - 1, (sleeper.agent.y + range) / BUCKET_SIZE);
+        for (int bucketX = Math.max(0, (sleeper.agent.x - range) / BUCKET_SIZE); bucketX <= maxX; bucketX++) {
+            for (int bucketY = Math.max(0, (sleeper.agent.y - range) / BUCKET_SIZE); bucketY <= maxY; bucketY++) {
+                buckets.get(bucketX * yBuckets + bucketY).remove(sleeper);
+            }
+        }
+    }
+}
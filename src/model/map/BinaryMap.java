@@ -0,0 +1,187 @@
+package model.map;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import model.world.CellType;
+import model.world.StaticWorld;
+
+/**
+ * Reads and writes maps in the binary .bmap format, which holds a compiled
+ * map ready to use, with its lighting already computed. Loading one is a
+ * matter of copying a few arrays out of a memory mapped file.
+ * 
+ * The format is big-endian and made up of:
+ * - a header: the magic number, the version, the dimensions, the flags of
+ *   the optional sections present and a hash of the content (see
+ *   {@link #hash(StaticWorld, int)});
+ * - the type plane: the ordinal of the type of every cell, one byte each;
+ * - the light plane: the light value of every cell, as a double;
+ * - if the NAVIGATION flag is set, the masks of walkable neighbours of every
+ *   cell (see {@link StaticWorld#getWalkableDirections(int)}), one byte each.
+ * Cells are in id order, {@code x * yDimension + y}. The light plane alone
+ * takes more than 2 GB above 2^28 cells, so the planes are mapped a chunk at
+ * a time.
+ */
+public class BinaryMap {
+    private static final int MAGIC = 0x424d4150, VERSION = 2;
+    private static final int HEADER_SIZE = 4 * 5 + 8;
+    private static final int CHUNK_CELLS = 1 << 26;
+    
+    /**
+     * Flag of the optional section with the masks of walkable neighbours.
+     */
+    public static final int NAVIGATION = 1;
+
+    /**
+     * Writes the compiled map to the specified file, with the specified
+     * optional sections.
+     */
+    public static void write(StaticWorld map, File file, int flags) throws IOException {
+        int cells = map.xDimension * map.yDimension;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(map.xDimension);
+            out.writeInt(map.yDimension);
+            out.writeInt(flags);
+            out.writeLong(hash(map, flags));
+            for (int id = 0; id < cells; id++) {
+                out.writeByte(map.getType(map.getX(id), map.getY(id)).ordinal());
+            }
+            for (int id = 0; id < cells; id++) {
+                out.writeDouble(map.getLight(map.getX(id), map.getY(id)));
+            }
+            if ((flags & NAVIGATION) != 0) {
+                for (int id = 0; id < cells; id++) {
+                    out.writeByte(map.getWalkableDirections(id));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the compiled map in the specified file. The content must match
+     * the hash in the header.
+     */
+    public static StaticWorld read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel, file);
+            long hash = header.getLong(20);
+            int xDimension = header.getInt(8), yDimension = header.getInt(12), flags = header.getInt(16);
+            long cellCount = (long) xDimension * yDimension;
+            if (xDimension <= 0 || yDimension <= 0 || cellCount > StaticWorld.MAX_CELLS) {
+                throw new IOException(String.format("Invalid dimensions %sx%s in map file %s", 
+                        xDimension, yDimension, file));
+            }
+            int cells = (int) cellCount;
+            long size = HEADER_SIZE + cells * 9L + ((flags & NAVIGATION) != 0 ? cells : 0);
+            if (channel.size() != size) {
+                throw new IOException(String.format("Map file %s should be %s bytes long, but is %s", 
+                        file, size, channel.size()));
+            }
+            
+            long position = HEADER_SIZE;
+            CellType[] types = new CellType[cells];
+            byte[] ordinals = new byte[Math.min(CHUNK_CELLS, cells)];
+            for (int start = 0; start < cells; start += CHUNK_CELLS) {
+                int count = Math.min(CHUNK_CELLS, cells - start);
+                map(channel, position + start, count).get(ordinals, 0, count);
+                for (int i = 0; i < count; i++) {
+                    if (ordinals[i] < 0 || ordinals[i] >= CellType.types.length) {
+                        throw new IOException("Invalid cell type " + ordinals[i] + " in map file " + file);
+                    }
+                    types[start + i] = CellType.types[ordinals[i]];
+                }
+            }
+            position += cells;
+            double[] light = new double[cells];
+            for (int start = 0; start < cells; start += CHUNK_CELLS) {
+                int count = Math.min(CHUNK_CELLS, cells - start);
+                map(channel, position + start * 8L, count * 8L).asDoubleBuffer().get(light, start, count);
+            }
+            position += cells * 8L;
+            byte[] walkableNeighbours = null;
+            if ((flags & NAVIGATION) != 0) {
+                walkableNeighbours = new byte[cells];
+                for (int start = 0; start < cells; start += CHUNK_CELLS) {
+                    int count = Math.min(CHUNK_CELLS, cells - start);
+                    map(channel, position + start, count).get(walkableNeighbours, start, count);
+                }
+            }
+            
+            StaticWorld map = new StaticWorld(xDimension, yDimension, types, light, walkableNeighbours);
+            if (hash(map, flags) != hash) {
+                throw new IOException("Map file " + file + " does not match its hash, it may be corrupt");
+            }
+            return map;
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Returns the hash recorded in the header of the specified file, which
+     * identifies its content. This only reads the header.
+     */
+    public static long readHash(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return readHeader(channel, file).getLong(20);
+        }
+    }
+    
+    private static ByteBuffer readHeader(FileChannel channel, File file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header) >= 0) {
+            // keep reading until the header is complete
+        }
+        if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary map file: " + file);
+        }
+        int version = header.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary map version " + version + " in " + file);
+        }
+        return header;
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the dimensions, types and light values
+     * of the map, followed by the optional sections in the specified flags, so
+     * that it covers everything stored in a file with these sections.
+     */
+    public static long hash(StaticWorld map, int flags) {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, map.xDimension);
+        hash = mix(hash, map.yDimension);
+        for (int x = 0; x < map.xDimension; x++) {
+            for (int y = 0; y < map.yDimension; y++) {
+                hash = mix(hash, map.getType(x, y).ordinal());
+                hash = mix(hash, Double.doubleToLongBits(map.getLight(x, y)));
+            }
+        }
+        if ((flags & NAVIGATION) != 0) {
+            for (int id = 0; id < map.xDimension * map.yDimension; id++) {
+                hash = mix(hash, map.getWalkableDirections(id));
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
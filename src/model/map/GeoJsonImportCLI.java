@@ -0,0 +1,41 @@
+package model.map;
+
+import java.io.File;
+
+import model.world.StaticWorld;
+import model.world.TiledMap;
+
+public final class GeoJsonImportCLI {
+
+    private GeoJsonImportCLI() {}
+
+    /**
+     * Rasterises a GeoJSON street map (see {@link GeoJsonImporter}) into
+     * cells of the specified size, in metres, and writes it as a .map, a
+     * binary .bmap or a tiled .tmap file, depending on the extension of the
+     * output. Add "planar" if the coordinates are in metres rather than
+     * longitudes and latitudes.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: GeoJsonImportCLI <input .geojson> <output .map, .bmap or .tmap> <cell size> [planar]");
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        GeoJsonImporter importer = new GeoJsonImporter(Double.parseDouble(args[2]),
+                !(args.length > 3 && args[3].equals("planar")));
+        StaticWorld map = importer.read(new File(args[0]));
+
+        File output = new File(args[1]);
+        if (output.getName().endsWith(".map")) {
+            MapParser.write(map, output);
+        } else if (output.getName().endsWith(".tmap")) {
+            TiledMap.write(map, output, TiledMap.DEFAULT_TILE_SIZE);
+        } else {
+            BinaryMap.write(map, output, BinaryMap.NAVIGATION);
+        }
+        System.out.format("Wrote %sx%s map to %s in %.1f seconds\n", map.xDimension, map.yDimension, output,
+                (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,523 @@
+package model.map;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import model.world.CellType;
+import model.world.StaticWorld;
+import model.world.World;
+
+/**
+ * Imports street maps in GeoJSON format, rasterising their features into a
+ * compiled map with cells of a chosen size.
+ *
+ * Features are classified by their geometry and properties, using the usual
+ * OpenStreetMap tags (see {@link #classify(String, Map)}): roads and paved
+ * areas become paths, buildings become houses or shops, woods and trees
+ * become trees, and street lamps become lamps. Everything else is ignored,
+ * and cells which no feature covers are of the background type, houses by
+ * default, so that only streets are walkable, like in image maps.
+ *
+ * The file is streamed twice, once to find the extent of the map and once to
+ * read the features, which are sorted into square tiles of the map as they
+ * are read. The tiles are then rasterised in parallel, straight into the
+ * plane of types of the map, which is lit once complete. Within a tile, areas
+ * are drawn first, then lines and then points, each in file order, so the
+ * result does not depend on the number of threads. Maps which cannot fit in
+ * memory are rejected before anything is allocated, see
+ * {@link #BYTES_PER_CELL}.
+ *
+ * Coordinates are longitudes and latitudes, as the GeoJSON specification
+ * requires, and are projected onto a plane around the middle of the map,
+ * which is accurate enough at city scale. Coordinates which are already
+ * planar, in metres, can be imported as they are.
+ */
+public class GeoJsonImporter {
+    private static final int TILE_SIZE = 256;
+    private static final double METRES_PER_DEGREE = 6371008.8 * Math.PI / 180;
+
+    private static final int AREA = 0, LINE = 1, POINT = 2;
+
+    /**
+     * An estimate of the memory needed per cell while importing: the types
+     * and light of the cells, and what {@link StaticWorld} derives from them.
+     */
+    static final int BYTES_PER_CELL = 24;
+
+    private final double cellSize;
+    private final boolean geographic;
+    public CellType background = CellType.HOUSE;
+
+    /**
+     * Road width, in metres, if not given by the feature.
+     */
+    public double defaultRoadWidth;
+
+    // the transform from map coordinates to cells, set once the extent is known
+    private double minX, maxY, scaleX, scaleY;
+    private float maxCellX, maxCellY;
+    private int yDimension;
+
+    /**
+     * Creates an importer for cells of the specified size, in metres. If
+     * geographic is false, the coordinates are taken to be in metres already.
+     */
+    public GeoJsonImporter(double cellSize, boolean geographic) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        this.cellSize = cellSize;
+        this.geographic = geographic;
+        this.defaultRoadWidth = cellSize;
+    }
+
+    /**
+     * A feature as read from the file, before it is classified.
+     */
+    private static final class RawFeature {
+        String geometryType;
+        final List<double[]> parts = new ArrayList<>();
+        final Map<String, String> properties = new HashMap<>();
+    }
+
+    /**
+     * A classified feature in cell coordinates, with its bounding box in
+     * cells (including the width of lines).
+     */
+    private static final class Feature {
+        final CellType type;
+        final int kind, radius;
+        final float[][] parts;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+        Feature(CellType type, int kind, int radius, float[][] parts) {
+            this.type = type;
+            this.kind = kind;
+            this.radius = radius;
+            this.parts = parts;
+            for (float[] part : parts) {
+                for (int i = 0; i < part.length; i += 2) {
+                    minX = Math.min(minX, (int) part[i] - radius);
+                    maxX = Math.max(maxX, (int) part[i] + radius);
+                    minY = Math.min(minY, (int) part[i + 1] - radius);
+                    maxY = Math.max(maxY, (int) part[i + 1] + radius);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the map rasterised from the specified GeoJSON file, with its
+     * lighting computed. Throws an IOException if the map would have too
+     * many cells to be held in memory.
+     */
+    public StaticWorld read(File file) throws IOException {
+        // first pass: the extent of everything that will be drawn
+        double[] bounds = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+        readFeatures(file, raw -> {
+            if (classify(raw.geometryType, raw.properties) != null) {
+                for (double[] part : raw.parts) {
+                    for (int i = 0; i < part.length; i += 2) {
+                        bounds[0] = Math.min(bounds[0], part[i]);
+                        bounds[1] = Math.min(bounds[1], part[i + 1]);
+                        bounds[2] = Math.max(bounds[2], part[i]);
+                        bounds[3] = Math.max(bounds[3], part[i + 1]);
+                    }
+                }
+            }
+        });
+        if (bounds[0] > bounds[2]) {
+            throw new IOException("No features to import in " + file);
+        }
+        double metresX = 1, metresY = 1;
+        if (geographic) {
+            metresY = METRES_PER_DEGREE;
+            metresX = METRES_PER_DEGREE * Math.cos(Math.toRadians((bounds[1] + bounds[3]) / 2));
+        }
+        minX = bounds[0];
+        maxY = bounds[3];
+        scaleX = metresX / cellSize;
+        scaleY = metresY / cellSize;
+        long width = (long) ((bounds[2] - bounds[0]) * scaleX) + 1, height = (long) ((bounds[3] - bounds[1]) * scaleY) + 1;
+        checkSize(file, width, height);
+        int xDimension = (int) width;
+        yDimension = (int) height;
+        CellType[] types = new CellType[xDimension * yDimension];
+        // rounding must not take coordinates on the edges out of the map
+        maxCellX = Math.nextDown((float) xDimension);
+        maxCellY = Math.nextDown((float) yDimension);
+
+        // second pass: sort the features into tiles
+        int tilesX = (xDimension + TILE_SIZE - 1) / TILE_SIZE, tilesY = (yDimension + TILE_SIZE - 1) / TILE_SIZE;
+        List<List<Feature>> tiles = new ArrayList<>();
+        for (int tile = 0; tile < tilesX * tilesY; tile++) {
+            tiles.add(new ArrayList<>());
+        }
+        readFeatures(file, raw -> {
+            Feature feature = convert(raw);
+            if (feature == null) {
+                return;
+            }
+            for (int tileX = Math.max(0, feature.minX / TILE_SIZE); tileX <= Math.min(tilesX - 1, feature.maxX / TILE_SIZE); tileX++) {
+                for (int tileY = Math.max(0, feature.minY / TILE_SIZE); tileY <= Math.min(tilesY - 1, feature.maxY / TILE_SIZE); tileY++) {
+                    tiles.get(tileX * tilesY + tileY).add(feature);
+                }
+            }
+        });
+
+        IntStream.range(0, tiles.size()).parallel().forEach(tile -> {
+            int x0 = (tile / tilesY) * TILE_SIZE, y0 = (tile % tilesY) * TILE_SIZE;
+            rasterise(types, tiles.get(tile), x0, y0, Math.min(xDimension, x0 + TILE_SIZE),
+                    Math.min(yDimension, y0 + TILE_SIZE));
+        });
+        tiles.clear();
+
+        IntStream.Builder lampX = IntStream.builder(), lampY = IntStream.builder();
+        for (int id = 0; id < types.length; id++) {
+            if (types[id] == CellType.LAMP) {
+                lampX.add(id / yDimension);
+                lampY.add(id % yDimension);
+            }
+        }
+        double[] light = Lighting.computeLayer(
+                (x, y) -> x >= 0 && x < xDimension && y >= 0 && y < yDimension ? types[x * yDimension + y] : null,
+                lampX.build().toArray(), lampY.build().toArray(), 0, 0, xDimension - 1, yDimension - 1);
+        return new StaticWorld(xDimension, yDimension, types, light, null);
+    }
+
+    /**
+     * Throws an IOException if a map of the specified dimensions has more
+     * cells than ids can number, or would not fit in the memory of the JVM.
+     */
+    private void checkSize(File file, long width, long height) throws IOException {
+        long cells = width * height;
+        if (width > Integer.MAX_VALUE || height > Integer.MAX_VALUE || cells > StaticWorld.MAX_CELLS) {
+            throw new IOException(String.format("%s would make a %sx%s map with cells of %s m, more than the %s"
+                    + " cells a map can have, please use larger cells", file, width, height, cellSize,
+                    StaticWorld.MAX_CELLS));
+        }
+        long needed = cells * BYTES_PER_CELL, available = Runtime.getRuntime().maxMemory();
+        if (needed > available) {
+            throw new IOException(String.format("%s would make a %sx%s map with cells of %s m, which needs about"
+                    + " %s MB of memory to import, but only %s MB are available, please use larger cells or a"
+                    + " larger heap (-Xmx)", file, width, height, cellSize, needed >> 20, available >> 20));
+        }
+    }
+
+    /**
+     * Returns the type of cell a feature with the specified geometry and
+     * properties is drawn as, or null if it is not drawn.
+     * - Points: street lamps (highway=street_lamp) and trees (natural=tree).
+     * - Lines: roads and paths (any highway), and rows of trees (natural=tree_row).
+     * - Areas: buildings, which are shops if they have a shop tag or are
+     *   retail or commercial, other shops, woods and forests, and paved
+     *   areas (highway, area:highway or place=square).
+     */
+    static CellType classify(String geometryType, Map<String, String> properties) {
+        if (geometryType == null) {
+            return null;
+        }
+        String highway = properties.get("highway"), natural = properties.get("natural"),
+                building = properties.get("building");
+        switch (geometryType) {
+        case "Point":
+        case "MultiPoint":
+            if ("street_lamp".equals(highway)) {
+                return CellType.LAMP;
+            } else if ("tree".equals(natural)) {
+                return CellType.TREE;
+            }
+            return null;
+        case "LineString":
+        case "MultiLineString":
+            if (highway != null && !"street_lamp".equals(highway)) {
+                return CellType.PATH;
+            } else if ("tree_row".equals(natural)) {
+                return CellType.TREE;
+            }
+            return null;
+        case "Polygon":
+        case "MultiPolygon":
+            if (building != null && !"no".equals(building)) {
+                return properties.containsKey("shop") || "retail".equals(building) || "commercial".equals(building)
+                        ? CellType.SHOP : CellType.HOUSE;
+            } else if (properties.containsKey("shop")) {
+                return CellType.SHOP;
+            } else if ("wood".equals(natural) || "forest".equals(properties.get("landuse"))) {
+                return CellType.TREE;
+            } else if (highway != null || properties.containsKey("area:highway") || "square".equals(properties.get("place"))) {
+                return CellType.PATH;
+            }
+            return null;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Classifies the feature and converts it to cell coordinates, or returns
+     * null if it is not drawn.
+     */
+    private Feature convert(RawFeature raw) {
+        CellType type = classify(raw.geometryType, raw.properties);
+        if (type == null) {
+            return null;
+        }
+        int kind = raw.geometryType.endsWith("Polygon") ? AREA : raw.geometryType.endsWith("Point") ? POINT : LINE;
+        int radius = 0;
+        if (kind == LINE) {
+            double width = defaultRoadWidth;
+            try {
+                if (raw.properties.containsKey("width")) {
+                    width = Double.parseDouble(raw.properties.get("width"));
+                }
+            } catch (NumberFormatException e) {
+                // not a plain number of metres, keep the default
+            }
+            radius = (int) (width / cellSize / 2);
+        }
+        float[][] parts = new float[raw.parts.size()][];
+        for (int p = 0; p < parts.length; p++) {
+            double[] part = raw.parts.get(p);
+            parts[p] = new float[part.length];
+            for (int i = 0; i < part.length; i += 2) {
+                parts[p][i] = Math.min(maxCellX, (float) ((part[i] - minX) * scaleX));
+                parts[p][i + 1] = Math.min(maxCellY, (float) ((maxY - part[i + 1]) * scaleY));
+            }
+        }
+        return new Feature(type, kind, radius, parts);
+    }
+
+    /**
+     * Draws the features of a tile into the types of the cells, by id,
+     * clipped to the bounds of the tile (exclusive at the end). Only the
+     * segments of lines which come within their radius of the tile are
+     * traced, and only until they leave it.
+     */
+    private void rasterise(CellType[] types, List<Feature> features, int x0, int y0, int x1, int y1) {
+        for (int x = x0; x < x1; x++) {
+            Arrays.fill(types, x * yDimension + y0, x * yDimension + y1, background);
+        }
+        boolean[] crossed = new boolean[1];
+        for (int kind : new int[] { AREA, LINE, POINT }) {
+            for (Feature feature : features) {
+                if (feature.kind != kind) {
+                    continue;
+                }
+                switch (kind) {
+                case AREA:
+                    fillArea(types, feature, x0, y0, x1, y1);
+                    break;
+                case LINE:
+                    // the cells which paint the tile, a line leaves them for good once it has crossed them
+                    int minX = x0 - feature.radius, minY = y0 - feature.radius;
+                    int maxX = x1 - 1 + feature.radius, maxY = y1 - 1 + feature.radius;
+                    for (float[] part : feature.parts) {
+                        for (int i = 0; i + 3 < part.length; i += 2) {
+                            int fromX = (int) part[i], fromY = (int) part[i + 1];
+                            int toX = (int) part[i + 2], toY = (int) part[i + 3];
+                            if (Math.max(fromX, toX) < minX || Math.min(fromX, toX) > maxX
+                                    || Math.max(fromY, toY) < minY || Math.min(fromY, toY) > maxY) {
+                                continue;
+                            }
+                            crossed[0] = false;
+                            World.traceLine(fromX, fromY, toX, toY, yDimension, id -> {
+                                int x = id / yDimension, y = id % yDimension;
+                                if (x < minX || x > maxX || y < minY || y > maxY) {
+                                    return !crossed[0];
+                                }
+                                crossed[0] = true;
+                                paint(types, feature, x, y, x0, y0, x1, y1);
+                                return true;
+                            });
+                        }
+                        if (part.length == 2) {
+                            paint(types, feature, (int) part[0], (int) part[1], x0, y0, x1, y1);
+                        }
+                    }
+                    break;
+                default:
+                    for (float[] part : feature.parts) {
+                        for (int i = 0; i < part.length; i += 2) {
+                            paint(types, feature, (int) part[i], (int) part[i + 1], x0, y0, x1, y1);
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Paints the cells within the radius of the feature around the specified
+     * cell, which are also within the bounds of the tile.
+     */
+    private void paint(CellType[] types, Feature feature, int x, int y, int x0, int y0, int x1, int y1) {
+        for (int i = Math.max(x0, x - feature.radius); i <= Math.min(x1 - 1, x + feature.radius); i++) {
+            for (int j = Math.max(y0, y - feature.radius); j <= Math.min(y1 - 1, y + feature.radius); j++) {
+                types[i * yDimension + j] = feature.type;
+            }
+        }
+    }
+
+    /**
+     * Fills the cells of the tile whose centres are inside the area, using
+     * the even-odd rule over all of its rings, so holes are left out.
+     */
+    private void fillArea(CellType[] types, Feature feature, int x0, int y0, int x1, int y1) {
+        double[] crossings = new double[16];
+        for (int y = Math.max(y0, feature.minY); y <= Math.min(y1 - 1, feature.maxY); y++) {
+            double centre = y + 0.5;
+            int count = 0;
+            for (float[] ring : feature.parts) {
+                for (int i = 0; i < ring.length; i += 2) {
+                    int j = (i + 2) % ring.length;
+                    double ay = ring[i + 1], by = ring[j + 1];
+                    if ((ay <= centre) != (by <= centre)) {
+                        if (count == crossings.length) {
+                            crossings = Arrays.copyOf(crossings, count * 2);
+                        }
+                        crossings[count++] = ring[i] + (centre - ay) * (ring[j] - ring[i]) / (by - ay);
+                    }
+                }
+            }
+            Arrays.sort(crossings, 0, count);
+            for (int c = 0; c + 1 < count; c += 2) {
+                int from = Math.max(x0, (int) Math.ceil(crossings[c] - 0.5));
+                int to = Math.min(x1 - 1, (int) Math.ceil(crossings[c + 1] - 0.5) - 1);
+                for (int x = from; x <= to; x++) {
+                    types[x * yDimension + y] = feature.type;
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls the handler with every feature of the feature collection in the
+     * specified file, in order, reading one feature at a time.
+     */
+    private static void readFeatures(File file, Consumer<RawFeature> handler) throws IOException {
+        try (JsonReader in = new JsonReader(file)) {
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextString();
+                if (name.equals("features")) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        handler.accept(readFeature(in));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+    }
+
+    private static RawFeature readFeature(JsonReader in) throws IOException {
+        RawFeature feature = new RawFeature();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextString();
+            if (name.equals("geometry") && in.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                in.beginObject();
+                while (in.hasNext()) {
+                    String member = in.nextString();
+                    if (member.equals("type")) {
+                        feature.geometryType = in.nextString();
+                    } else if (member.equals("coordinates")) {
+                        readCoordinates(in, feature.parts);
+                    } else {
+                        in.skipValue();
+                    }
+                }
+                in.endObject();
+            } else if (name.equals("properties") && in.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                in.beginObject();
+                while (in.hasNext()) {
+                    String key = in.nextString();
+                    switch (in.peek()) {
+                    case STRING:
+                        feature.properties.put(key, in.nextString());
+                        break;
+                    case NUMBER:
+                        feature.properties.put(key, String.valueOf(in.nextDouble()));
+                        break;
+                    case BOOLEAN:
+                        feature.properties.put(key, String.valueOf(in.nextBoolean()));
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                    }
+                }
+                in.endObject();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return feature;
+    }
+
+    /**
+     * Reads nested arrays of positions, of any depth, adding every innermost
+     * array of positions (or single position) to the parts as a flat array
+     * of x, y pairs.
+     */
+    private static void readCoordinates(JsonReader in, List<double[]> parts) throws IOException {
+        in.beginArray();
+        readArray(in, parts);
+    }
+
+    /**
+     * Same as {@link #readCoordinates(JsonReader, List)}, for an array whose
+     * opening bracket has been consumed.
+     */
+    private static void readArray(JsonReader in, List<double[]> parts) throws IOException {
+        if (in.peek() == JsonReader.Token.NUMBER) {
+            parts.add(readPosition(in));
+            return;
+        }
+        double[] part = new double[16];
+        int length = 0;
+        while (in.hasNext()) {
+            in.beginArray();
+            if (in.peek() == JsonReader.Token.NUMBER) {
+                double[] position = readPosition(in);
+                if (length == part.length) {
+                    part = Arrays.copyOf(part, length * 2);
+                }
+                part[length++] = position[0];
+                part[length++] = position[1];
+            } else {
+                readArray(in, parts);
+            }
+        }
+        in.endArray();
+        if (length > 0) {
+            parts.add(Arrays.copyOf(part, length));
+        }
+    }
+
+    /**
+     * Reads a position, whose opening bracket has been consumed, up to and
+     * including its closing bracket. Altitudes are ignored.
+     */
+    private static double[] readPosition(JsonReader in) throws IOException {
+        double x = in.nextDouble(), y = in.nextDouble();
+        while (in.hasNext()) {
+            in.skipValue();
+        }
+        in.endArray();
+        return new double[] { x, y };
+    }
+}
@@ -0,0 +1,277 @@
+package model.map;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * A minimal pull parser for JSON files, which reads one value at a time so
+ * that files much larger than memory can be processed.
+ *
+ * It is lenient about separators: commas and colons are skipped like
+ * whitespace, so names are read with {@link #nextString()} like any other
+ * string. Errors say where in the file the problem is.
+ */
+final class JsonReader implements AutoCloseable {
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, STRING, NUMBER, BOOLEAN, NULL, END
+    }
+
+    private final File file;
+    private final Reader in;
+    private final char[] buffer = new char[1 << 16];
+    private int position = 0, limit = 0;
+    private int line = 1, column = 0;
+    private final StringBuilder text = new StringBuilder();
+
+    JsonReader(File file) throws IOException {
+        this.file = file;
+        this.in = new InputStreamReader(Files.newInputStream(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the kind of the next value, or of the end of the current object
+     * or array, without consuming it.
+     */
+    Token peek() throws IOException {
+        while (true) {
+            int c = peekChar();
+            switch (c) {
+            case -1:
+                return Token.END;
+            case ' ': case '\t': case '\r': case '\n': case ',': case ':':
+                nextChar();
+                break;
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '}':
+                return Token.END_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case ']':
+                return Token.END_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't': case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return Token.NUMBER;
+                }
+                throw error(String.format("Unexpected character '%s'", (char) c));
+            }
+        }
+    }
+
+    /**
+     * Returns true if the current object or array has more values.
+     */
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+    }
+
+    private void expect(Token token) throws IOException {
+        if (peek() != token) {
+            throw error("Expected " + token + " but found " + peek());
+        }
+        nextChar();
+    }
+
+    String nextString() throws IOException {
+        expect(Token.STRING);
+        text.setLength(0);
+        while (true) {
+            int c = nextChar();
+            if (c == -1) {
+                throw error("Unterminated string");
+            } else if (c == '"') {
+                return text.toString();
+            } else if (c == '\\') {
+                int escaped = nextChar();
+                switch (escaped) {
+                case 'b':
+                    text.append('\b');
+                    break;
+                case 'f':
+                    text.append('\f');
+                    break;
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(nextChar(), 16);
+                        if (digit < 0) {
+                            throw error("Invalid unicode escape");
+                        }
+                        code = code * 16 + digit;
+                    }
+                    text.append((char) code);
+                    break;
+                case -1:
+                    throw error("Unterminated string");
+                default:
+                    text.append((char) escaped);
+                    break;
+                }
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    double nextDouble() throws IOException {
+        expect(Token.NUMBER, readWord());
+        try {
+            return Double.parseDouble(text.toString());
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + text);
+        }
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN, readWord());
+        if (text.toString().equals("true")) {
+            return true;
+        } else if (text.toString().equals("false")) {
+            return false;
+        }
+        throw error("Invalid literal " + text);
+    }
+
+    void nextNull() throws IOException {
+        expect(Token.NULL, readWord());
+        if (!text.toString().equals("null")) {
+            throw error("Invalid literal " + text);
+        }
+    }
+
+    private void expect(Token expected, Token found) throws IOException {
+        if (expected != found) {
+            throw error("Expected " + expected + " but found " + found);
+        }
+    }
+
+    /**
+     * Reads a number or a literal into the text buffer and returns its kind.
+     */
+    private Token readWord() throws IOException {
+        Token token = peek();
+        text.setLength(0);
+        while (true) {
+            int c = peekChar();
+            if (c == -1 || c == ',' || c == ']' || c == '}' || c == ':' || Character.isWhitespace(c)) {
+                return token;
+            }
+            text.append((char) nextChar());
+        }
+    }
+
+    /**
+     * Skips the next value, including everything in it if it is an object or
+     * an array.
+     */
+    void skipValue() throws IOException {
+        switch (peek()) {
+        case BEGIN_OBJECT:
+        case BEGIN_ARRAY:
+            int depth = 0;
+            do {
+                switch (peek()) {
+                case BEGIN_OBJECT:
+                case BEGIN_ARRAY:
+                    depth++;
+                    nextChar();
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    nextChar();
+                    break;
+                case STRING:
+                    nextString();
+                    break;
+                case END:
+                    throw error("Unexpected end of file");
+                default:
+                    readWord();
+                    break;
+                }
+            } while (depth > 0);
+            break;
+        case STRING:
+            nextString();
+            break;
+        case END:
+        case END_OBJECT:
+        case END_ARRAY:
+            throw error("Expected a value but found " + peek());
+        default:
+            readWord();
+            break;
+        }
+    }
+
+    IOException error(String message) {
+        return new IOException(String.format("%s:%s:%s: %s", file, line, column, message));
+    }
+
+    private int peekChar() throws IOException {
+        if (position == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position];
+    }
+
+    private int nextChar() throws IOException {
+        int c = peekChar();
+        if (c != -1) {
+            position++;
+            column++;
+            if (c == '\n') {
+                line++;
+                column = 0;
+            }
+        }
+        return c;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
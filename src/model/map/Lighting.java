@@ -1,5 +1,10 @@
 package model.map;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import model.world.Cell;
 import model.world.CellType;
 import model.world.World;
 import utils.Utils;
@@ -23,6 +28,138 @@ public class Lighting {
     public static final double EXPONENT = Math.log(LIGHT_THRESHOLD) / Math.log(1 + LIGHT_RADIUS);
     public static final int RADIUS_INT = (int) Math.floor(LIGHT_RADIUS);
     
+    /**
+     * The cells around a lamp are identified by their offset from the lamp,
+     * packed as {@code (i + RADIUS_INT) * SIZE + (j + RADIUS_INT)}, and sets of
+     * them are kept as bitsets of WORDS longs.
+     */
+    private static final int SIZE = 2 * RADIUS_INT + 1;
+    private static final int WORDS = (SIZE * SIZE + 63) >> 6;
+    
+    /**
+     * The attenuation kernel: the light cast by a lamp on the cell at each
+     * offset, if nothing is in the way.
+     */
+    private static final double[] KERNEL = new double[SIZE * SIZE];
+    
+    /**
+     * The offsets which a lamp can light at all, that is, whose light in
+     * the kernel is not 0.
+     */
+    private static final long[] REACHED = new long[WORDS];
+    
+    /**
+     * SHADOWS[k] is the set of offsets whose line of sight from the lamp
+     * passes through offset k, and which are therefore dark if the cell at
+     * k obstructs the view. SHADOWING lists the offsets which have a shadow.
+     */
+    private static final long[][] SHADOWS = new long[SIZE * SIZE][];
+    private static final int[] SHADOWING;
+    
+    static {
+        for (int i = -RADIUS_INT; i <= RADIUS_INT; i++) {
+            for (int j = -RADIUS_INT; j <= RADIUS_INT; j++) {
+                double light = Math.pow(1 + Utils.getDistance(i, j), EXPONENT);
+                if (light >= LIGHT_THRESHOLD) {
+                    int k = getOffset(i, j);
+                    KERNEL[k] = light;
+                    REACHED[k >> 6] |= 1L << k;
+                }
+            }
+        }
+        
+        // the same lines as World.computeLine, traced on a grid the size of the kernel
+        for (int k = 0; k < SIZE * SIZE; k++) {
+            if (KERNEL[k] == 0) {
+                continue;
+            }
+            int target = k;
+            World.traceLine(RADIUS_INT, RADIUS_INT, k / SIZE, k % SIZE, SIZE, id -> {
+                if (id != target) {
+                    if (SHADOWS[id] == null) {
+                        SHADOWS[id] = new long[WORDS];
+                    }
+                    SHADOWS[id][target >> 6] |= 1L << target;
+                }
+                return true;
+            });
+        }
+        SHADOWING = IntStream.range(0, SIZE * SIZE).filter(k -> SHADOWS[k] != null).toArray();
+    }
+    
+    /**
+     * The type of every cell of a map, as seen by the lighting.
+     */
+    public interface TypeGrid {
+        /**
+         * Returns the type of the specified cell, or null if it is out of the
+         * bounds of the map.
+         */
+        CellType getType(int x, int y);
+    }
+    
+    private static int getOffset(int i, int j) {
+        return (i + RADIUS_INT) * SIZE + j + RADIUS_INT;
+    }
+    
+    /**
+     * Adds the light of a lamp to the cells within the specified bounds
+     * (inclusive), given the offsets it lights as returned by
+     * {@link #getLit(World, int, int)}.
+     */
+    static void applyLit(World w, int x, int y, long[] lit, int minX, int minY, int maxX, int maxY) {
+        for (int word = 0; word < WORDS; word++) {
+            for (long bits = lit[word]; bits != 0; bits &= bits - 1) {
+                int k = (word << 6) + Long.numberOfTrailingZeros(bits);
+                int cellX = x + k / SIZE - RADIUS_INT, cellY = y + k % SIZE - RADIUS_INT;
+                if (cellX >= minX && cellX <= maxX && cellY >= minY && cellY <= maxY) {
+                    Cell cell = w.grid[cellX][cellY];
+                    cell.light = Math.max(cell.light, KERNEL[k]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Adds the light of a lamp to a layer covering the specified bounds
+     * (inclusive), like {@link #applyLit(World, int, int, long[], int, int, int, int)}.
+     * The layer is indexed by {@code (x - minX) * (maxY - minY + 1) + y - minY}.
+     */
+    private static void applyLit(double[] layer, int x, int y, long[] lit, int minX, int minY, int maxX, int maxY) {
+        int height = maxY - minY + 1;
+        for (int word = 0; word < WORDS; word++) {
+            for (long bits = lit[word]; bits != 0; bits &= bits - 1) {
+                int k = (word << 6) + Long.numberOfTrailingZeros(bits);
+                int cellX = x + k / SIZE - RADIUS_INT, cellY = y + k % SIZE - RADIUS_INT;
+                if (cellX >= minX && cellX <= maxX && cellY >= minY && cellY <= maxY) {
+                    int i = (cellX - minX) * height + cellY - minY;
+                    layer[i] = Math.max(layer[i], KERNEL[k]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Computes the light cast by the lamps at the specified positions onto
+     * the cells within the specified bounds (inclusive), as a layer indexed
+     * by {@code (x - minX) * (maxY - minY + 1) + y - minY}. The lamps need not
+     * be within the bounds, and nothing else lights the layer: this is how
+     * lamps which are switched on and off together get a layer of their own.
+     * 
+     * Over the whole map, with every lamp, this gives the same light as
+     * {@link #computeLighting(World)}, in id order.
+     */
+    public static double[] computeLayer(TypeGrid types, int[] lampX, int[] lampY, int minX, int minY, int maxX,
+            int maxY) {
+        long[][] lit = new long[lampX.length][];
+        IntStream.range(0, lit.length).parallel().forEach(i -> lit[i] = getLit(types, lampX[i], lampY[i]));
+        double[] layer = new double[(maxX - minX + 1) * (maxY - minY + 1)];
+        for (int i = 0; i < lit.length; i++) {
+            applyLit(layer, lampX[i], lampY[i], lit[i], minX, minY, maxX, maxY);
+        }
+        return layer;
+    }
+    
     /**
      * Each cell has a light value which is calculated based on its proximity to
      * lamps.
@@ -30,49 +167,71 @@ public class Lighting {
      * The light from lamps attenuates with the square of the distance? Maybe in
      * real, but here it can be customised.
      * 
+     * The cells lit by each lamp are found in parallel, and then the light of
+     * the lamps is added one at a time, taking the brightest light of each
+     * cell. This gives the same result as computing them one at a time with
+     * {@link #computeLamp(World, int, int)}.
      */
     public static void computeLighting(World w) {
+        List<Cell> lamps = new ArrayList<>();
         for (int y = 0; y < w.yDimension; y++) {
             for (int x = 0; x < w.xDimension; x++) {
-                // compute the light value around each lamp based on the range
                 if (w.grid[x][y].type == CellType.LAMP) {
-                    computeLamp(w, x, y);
+                    lamps.add(w.grid[x][y]);
                 }
             }
         }
+        
+        long[][] lit = new long[lamps.size()][];
+        IntStream.range(0, lit.length).parallel().forEach(i -> lit[i] = getLit(w, lamps.get(i).x, lamps.get(i).y));
+        for (int i = 0; i < lit.length; i++) {
+            applyLit(w, lamps.get(i).x, lamps.get(i).y, lit[i], 0, 0, w.xDimension - 1, w.yDimension - 1);
+        }
     }
 
     /**
      * Computes the lighting for a single lamp and assigns it to that lamp.
+     * 
+     * This only ever adds light, so it cannot account for lamps being removed
+     * or the view being obstructed. Use a {@link LightingEngine} to edit maps.
      */
     public static void computeLamp(World w, int x, int y) {
-        for (int i = -RADIUS_INT; i <= RADIUS_INT; i++) {
-            for (int j = -RADIUS_INT; j <= RADIUS_INT; j++) {
-                if (w.withinBounds(x + i, y + j) 
-                        && (w.grid[x + i][y + j].type == CellType.PATH || w.grid[x + i][y + j].type == CellType.LAMP) 
-                        && !isObstructed(w, x, y, x + i, y + j)) {
-                    double light = Math.pow(1 + Utils.getDistance(i, j), EXPONENT);
-                    if (light < LIGHT_THRESHOLD)
-                        light = 0;
-                    w.grid[x + i][y + j].light = Math.max(w.grid[x + i][y + j].light, light);
-                }
-            }
-        }
+        applyLit(w, x, y, getLit(w, x, y), 0, 0, w.xDimension - 1, w.yDimension - 1);
+    }
+    
+    /**
+     * Returns the offsets around the lamp at the specified coordinates which
+     * it lights: those within reach of the kernel and the bounds of the
+     * world, which are paths or lamps, and which no cell obstructs the view
+     * of, along a line from the lamp.
+     */
+    static long[] getLit(World w, int x, int y) {
+        return getLit((i, j) -> w.withinBounds(i, j) ? w.grid[i][j].type : null, x, y);
     }
     
     /**
-     * Used to determine if there is a line of sight between two points in the world.
+     * Like {@link #getLit(World, int, int)}, on any grid of types.
      */
-    private static boolean isObstructed(World w, int startX, int startY, int endX, int endY) {
-        // dirty hack
-        class BooleanValue {
-            public boolean value = true;
+    private static long[] getLit(TypeGrid types, int x, int y) {
+        long[] lit = REACHED.clone();
+        for (int k : SHADOWING) {
+            CellType type = types.getType(x + k / SIZE - RADIUS_INT, y + k % SIZE - RADIUS_INT);
+            if (type != null && type.obstructsView) {
+                long[] shadow = SHADOWS[k];
+                for (int word = 0; word < WORDS; word++) {
+                    lit[word] &= ~shadow[word];
+                }
+            }
+        }
+        for (int word = 0; word < WORDS; word++) {
+            for (long bits = lit[word]; bits != 0; bits &= bits - 1) {
+                int k = (word << 6) + Long.numberOfTrailingZeros(bits);
+                CellType type = types.getType(x + k / SIZE - RADIUS_INT, y + k % SIZE - RADIUS_INT);
+                if (type != CellType.PATH && type != CellType.LAMP) {
+                    lit[word] &= ~(1L << k);
+                }
+            }
         }
-        BooleanValue obstructed = new BooleanValue();
-        w.computeLine(startX, startY, endX, endY, cell -> {
-            obstructed.value = !(cell.x == endX && cell.y == endY);
-            return !cell.type.obstructsView;
-        });
-        return obstructed.value;
+        return lit;
     }
 }
@@ -0,0 +1,101 @@
+package model.map;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import model.world.CellType;
+import model.world.World;
+
+/**
+ * Keeps the lighting of a world up to date as its cells are edited.
+ * 
+ * The light of each cell is the brightest light cast on it by any lamp, so
+ * removing a lamp or putting something in the way of its light cannot be
+ * undone by adding light. Instead, the engine remembers which cells each
+ * lamp lights, and when a cell is edited it recomputes only the lamps whose
+ * light may depend on it, and then the light of the cells those lamps
+ * reach, from the lamps which reach them.
+ * 
+ * The values are the same as computing the lighting of the edited world from
+ * scratch with {@link Lighting#computeLighting(World)}.
+ */
+public class LightingEngine {
+    /**
+     * How far from an edited cell the light of other cells may change. A lamp
+     * depends on the cells within its radius, and lights the cells within its
+     * radius in turn.
+     */
+    public static final int REACH = 2 * Lighting.RADIUS_INT;
+
+    private final World world;
+
+    /**
+     * The offsets lit by each lamp (see {@link Lighting#getLit(World, int, int)}),
+     * by {@code x * yDimension + y} of the lamp.
+     */
+    private final Map<Integer, long[]> lamps = new HashMap<>();
+
+    /**
+     * Creates an engine for the provided world and computes its lighting
+     * from scratch.
+     */
+    public LightingEngine(World world) {
+        this.world = world;
+        int[] ids = IntStream.range(0, world.xDimension * world.yDimension)
+                .filter(id -> world.grid[id / world.yDimension][id % world.yDimension].type == CellType.LAMP)
+                .toArray();
+        long[][] lit = new long[ids.length][];
+        IntStream.range(0, ids.length).parallel()
+                .forEach(i -> lit[i] = Lighting.getLit(world, ids[i] / world.yDimension, ids[i] % world.yDimension));
+        for (int i = 0; i < ids.length; i++) {
+            lamps.put(ids[i], lit[i]);
+        }
+        relight(0, 0, world.xDimension - 1, world.yDimension - 1);
+    }
+
+    /**
+     * Updates the lighting after the type of the specified cell has changed.
+     * Only cells within {@link #REACH} of it can change.
+     */
+    public void update(int x, int y) {
+        int id = x * world.yDimension + y;
+        if (world.grid[x][y].type != CellType.LAMP) {
+            lamps.remove(id);
+        }
+        
+        int radius = Lighting.RADIUS_INT;
+        for (int lampX = Math.max(0, x - radius); lampX <= Math.min(world.xDimension - 1, x + radius); lampX++) {
+            for (int lampY = Math.max(0, y - radius); lampY <= Math.min(world.yDimension - 1, y + radius); lampY++) {
+                if (world.grid[lampX][lampY].type == CellType.LAMP) {
+                    lamps.put(lampX * world.yDimension + lampY, Lighting.getLit(world, lampX, lampY));
+                }
+            }
+        }
+        
+        relight(Math.max(0, x - REACH), Math.max(0, y - REACH), 
+                Math.min(world.xDimension - 1, x + REACH), Math.min(world.yDimension - 1, y + REACH));
+    }
+
+    /**
+     * Recomputes the light of the cells within the specified bounds
+     * (inclusive), from the lamps close enough to reach them.
+     */
+    private void relight(int minX, int minY, int maxX, int maxY) {
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                world.grid[x][y].light = 0;
+            }
+        }
+        
+        int radius = Lighting.RADIUS_INT;
+        for (int lampX = Math.max(0, minX - radius); lampX <= Math.min(world.xDimension - 1, maxX + radius); lampX++) {
+            for (int lampY = Math.max(0, minY - radius); lampY <= Math.min(world.yDimension - 1, maxY + radius); lampY++) {
+                long[] lit = lamps.get(lampX * world.yDimension + lampY);
+                if (lit != null) {
+                    Lighting.applyLit(world, lampX, lampY, lit, minX, minY, maxX, maxY);
+                }
+            }
+        }
+    }
+}
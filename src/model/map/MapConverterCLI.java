@@ -0,0 +1,41 @@
+package model.map;
+
+import java.io.File;
+
+import model.world.StaticWorld;
+import model.world.TiledMap;
+
+public final class MapConverterCLI {
+
+    private MapConverterCLI() {}
+
+    /**
+     * Converts a map into the binary .bmap format (see {@link BinaryMap}),
+     * with its lighting computed and every optional section included, or
+     * into the tiled .tmap format (see {@link TiledMap}) if the output ends
+     * in .tmap. Images are converted with the optional scale and
+     * road threshold (see {@link MapImage}).
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: MapConverterCLI <input map> <output .bmap or .tmap> [image scale] [road threshold]");
+            System.exit(1);
+        }
+
+        File input = new File(args[0]);
+        int scale = args.length > 2 ? Integer.parseInt(args[2]) : MapImage.DEFAULT_SCALE;
+        int roadThreshold = args.length > 3 ? Integer.parseInt(args[3]) : MapImage.DEFAULT_ROAD_THRESHOLD;
+        StaticWorld map = StaticWorld.load(input, scale, roadThreshold);
+        if (map == null) {
+            throw new Exception("Could not load map: " + input);
+        }
+        File output = new File(args[1]);
+        if (output.getName().endsWith(".tmap")) {
+            TiledMap.write(map, output, TiledMap.DEFAULT_TILE_SIZE);
+        } else {
+            BinaryMap.write(map, output, BinaryMap.NAVIGATION);
+        }
+        System.out.format("Wrote %sx%s map to %s, hash %016x\n", map.xDimension, map.yDimension, output,
+                BinaryMap.hash(map, BinaryMap.NAVIGATION));
+    }
+}
@@ -1,11 +1,17 @@
 package model.map;
 
-import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import model.world.Cell;
 import model.world.CellType;
@@ -14,66 +20,119 @@ import utils.Utils;
 
 /**
  * Loads an image as a map.
+ * 
+ * Every block of SCALE x SCALE pixels becomes a cell, which is a road if more
+ * than a third of its pixels have a red level of at least the road threshold,
+ * and a house otherwise.
+ * 
+ * The image is decoded a strip of rows at a time, so only one strip is ever
+ * held in memory, and the blocks of each strip are classified in parallel.
+ * Some formats (JPEG among them) have to decode everything above a strip to
+ * get to it, so strips are made as large as the memory budget allows.
  */
 public class MapImage {
     private static Logger log = Utils.getConsoleLogger(MapImage.class);
     
     /**
-     * Number of pixels which are averaged to create a single cell.
+     * Default number of pixels along each side of the block which makes up
+     * a single cell.
      */
-    private static int SCALE = 4;
+    public static final int DEFAULT_SCALE = 4;
+    
+    /**
+     * Default red level, between 0 and 255, from which a pixel counts as
+     * part of a road.
+     */
+    public static final int DEFAULT_ROAD_THRESHOLD = 230;
+    
+    /**
+     * Roughly the largest number of pixels decoded at once.
+     */
+    private static final int STRIP_PIXELS = 1 << 24;
 
-    private static boolean isBlockRoad(BufferedImage img, int x, int y) {
+    /**
+     * Returns true if the block starting at the specified column of the rows
+     * of pixels is a road. The rows hold the RGB values of each pixel.
+     */
+    private static boolean isBlockRoad(int[] rows, int width, int rowOffset, int x, int scale, int roadThreshold) {
         int roadPixels = 0;
-        int totalPixels = SCALE * SCALE;
-        for (int i = x; i < x + SCALE; ++i) {
-            for (int j = y; j < y + SCALE; ++j) {
-                int a = img.getRGB(i, j);
-                Color c = new Color(a);
-                int clr = c.getRed();
-                if (clr >= 230) { // Fucking Java
+        int totalPixels = scale * scale;
+        for (int j = rowOffset; j < rowOffset + scale; ++j) {
+            for (int i = x; i < x + scale; ++i) {
+                if (((rows[j * width + i] >> 16) & 0xff) >= roadThreshold) {
                     roadPixels++;
                 }
             }
         }
+        return roadPixels > (totalPixels / 3);
+    }
 
-        if (roadPixels > (totalPixels / 3)) {
-            return true;
-        } else
-            return false;
+    /**
+     * Returns the world loaded from the specified image file with the default
+     * scale and road threshold if valid, null otherwise.
+     */
+    public static World loadWorldFromImage(File file) {
+        return loadWorldFromImage(file, DEFAULT_SCALE, DEFAULT_ROAD_THRESHOLD);
     }
 
     /**
      * Returns the world loaded from the specified image file if valid, 
      * null otherwise.
      */
-    public static World loadWorldFromImage(File file) {
-        World w = null;
+    public static World loadWorldFromImage(File file, int scale, int roadThreshold) {
         try {
-            BufferedImage img = ImageIO.read(file);
-            w = new World(img.getWidth() / SCALE, img.getHeight() / SCALE);
-            log.info("Image size is: " + img.getWidth() / SCALE + " " + img.getHeight() / SCALE);
+            return readWorldFromImage(file, scale, roadThreshold);
+        } catch (Exception e) {
+            log.severe("Could not load map image: " + file + " (" + e.getMessage() + ")");
+            return null;
+        }
+    }
 
-            int i = 0;
-            int j = 0;
-            for (int x = 0; x <= img.getWidth() - SCALE; x += SCALE) {
-                j = 0;
-                for (int y = 0; y <= img.getHeight() - SCALE; y += SCALE) {
-                    if (isBlockRoad(img, x, y)) {
-                        w.grid[i][j] = new Cell(CellType.PATH, i, j);
-                    } else {
-                        w.grid[i][j] = new Cell(CellType.HOUSE, i, j);
-                    }
-                    j++;
+    private static World readWorldFromImage(File file, int scale, int roadThreshold) throws IOException {
+        if (scale <= 0) {
+            throw new IllegalArgumentException("Image scale must be positive");
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                throw new IOException("Cannot open image");
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unknown image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true);
+                int width = reader.getWidth(0), height = reader.getHeight(0);
+                World w = new World(width / scale, height / scale);
+                log.info("Image size is: " + w.xDimension + " " + w.yDimension);
+                
+                int pixelWidth = w.xDimension * scale;
+                int stripCells = Math.max(1, STRIP_PIXELS / Math.max(1, width * scale));
+                int[] rows = null;
+                for (int stripStart = 0; stripStart < w.yDimension; stripStart += stripCells) {
+                    int stripEnd = Math.min(w.yDimension, stripStart + stripCells);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(new Rectangle(0, stripStart * scale, pixelWidth, (stripEnd - stripStart) * scale));
+                    BufferedImage strip = reader.read(0, param);
+                    rows = strip.getRGB(0, 0, pixelWidth, strip.getHeight(), rows, 0, pixelWidth);
+                    
+                    int[] pixels = rows;
+                    int first = stripStart;
+                    IntStream.range(first, stripEnd).parallel().forEach(j -> {
+                        int rowOffset = (j - first) * scale;
+                        for (int i = 0; i < w.xDimension; i++) {
+                            CellType type = isBlockRoad(pixels, pixelWidth, rowOffset, i * scale, scale, roadThreshold)
+                                    ? CellType.PATH : CellType.HOUSE;
+                            w.grid[i][j] = new Cell(type, i, j);
+                        }
+                    });
                 }
-                i++;
+                return w;
+            } finally {
+                reader.dispose();
             }
-        } catch (Exception e) {
-            log.severe(e.getMessage());
-            e.printStackTrace();
         }
-
-        return w;
     }
 
 }
@@ -1,43 +1,210 @@
 package model.map;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.util.Scanner;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.logging.Logger;
 
 import model.world.Cell;
 import model.world.CellType;
+import model.world.StaticWorld;
 import model.world.World;
 import utils.Utils;
 
 /**
  * Parses maps in a specific .map format.
+ * 
+ * A .map file holds the number of columns, the number of rows and then the
+ * type of every cell, row by row, as non-negative integers (see
+ * {@link CellType#types}). Numbers are separated by whitespace or commas,
+ * and anything from a # to the end of the line is a comment. A UTF-8 byte
+ * order mark at the start of the file, as some Windows editors write, is
+ * skipped.
+ * 
+ * The file is read through a channel a block at a time, and parsed byte by
+ * byte, so large maps load quickly.
  */
 public class MapParser {
     
     private static Logger log = Utils.getConsoleLogger(MapParser.class);
     
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private static final byte[] BYTE_ORDER_MARK = { (byte) 0xef, (byte) 0xbb, (byte) 0xbf };
+    
     /**
      * Returns the world parsed from the specified file
      * if valid, null otherwise. 
      */
     public static World parse(File file) {
-        try (Scanner input = new Scanner(file)) {
-            input.useDelimiter("[^0-9]+");
-
-            World w = new World(input.nextInt(), input.nextInt());
-
-            for (int y = 0; y < w.yDimension; y++) {
-                for (int x = 0; x < w.xDimension; x++) {
-                    w.grid[x][y] = new Cell(CellType.types[input.nextInt()], x, y);
+        try {
+            return read(file);
+        } catch (IOException e) {
+            log.severe("Could not parse map: " + e.getMessage());
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the world parsed from the specified file, with its lighting
+     * computed. If the file is not a valid map, the exception says where in
+     * the file the problem is.
+     */
+    public static World read(File file) throws IOException {
+        Parser parser = new Parser(file);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    parser.accept(buffer.get());
                 }
+                buffer.clear();
+            }
+        }
+        World w = parser.finish();
+        Lighting.computeLighting(w);
+        return w;
+    }
+    
+    /**
+     * Writes the compiled map to the specified file in .map format, in the
+     * same layout as the map tool prints.
+     */
+    public static void write(StaticWorld map, File file) throws IOException {
+        try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.println(map.xDimension + " # number of columns");
+            out.println(map.yDimension + " # number of rows");
+            for (int y = 0; y < map.yDimension; y++) {
+                for (int x = 0; x < map.xDimension; x++) {
+                    out.print(map.getType(x, y).ordinal());
+                    out.print(',');
+                }
+                out.println();
             }
-            Lighting.computeLighting(w);
-            return w;
-        } catch (Exception e) {
-            log.severe("Could not parse map: " + file);
-            e.printStackTrace();
         }
-        return null;
     }
     
+    /**
+     * Turns the bytes of a map file into a world, keeping track of where it
+     * is in the file to report errors.
+     */
+    private static final class Parser {
+        private final File file;
+        private int line = 1, column = 0;
+        private boolean inComment = false;
+        // the bytes of the byte order mark read so far, or -1 once past the start of the file
+        private int byteOrderMark = 0;
+        
+        // the number being read, and where it started
+        private long value = -1;
+        private int valueLine, valueColumn;
+        
+        private World w;
+        private int xDimension = -1, yDimension = -1;
+        private int cells = 0, totalCells;
+        
+        Parser(File file) {
+            this.file = file;
+        }
+        
+        void accept(byte b) throws IOException {
+            if (byteOrderMark >= 0) {
+                if (b == BYTE_ORDER_MARK[byteOrderMark]) {
+                    if (++byteOrderMark == BYTE_ORDER_MARK.length) {
+                        byteOrderMark = -1;
+                    }
+                    return;
+                }
+                if (byteOrderMark > 0) {
+                    throw error(1, 1, "Incomplete UTF-8 byte order mark");
+                }
+                byteOrderMark = -1;
+            }
+            column++;
+            if (b == '\n') {
+                endNumber();
+                inComment = false;
+                line++;
+                column = 0;
+            } else if (inComment) {
+                return;
+            } else if (b >= '0' && b <= '9') {
+                if (value < 0) {
+                    value = 0;
+                    valueLine = line;
+                    valueColumn = column;
+                }
+                value = value * 10 + (b - '0');
+                if (value > Integer.MAX_VALUE) {
+                    throw error(valueLine, valueColumn, "Number is too large");
+                }
+            } else if (b == '#') {
+                endNumber();
+                inComment = true;
+            } else if (b == ' ' || b == ',' || b == '\t' || b == '\r') {
+                endNumber();
+            } else {
+                throw error(line, column, String.format("Unexpected character '%s'", 
+                        b >= 32 && b < 127 ? String.valueOf((char) b) : String.format("\\x%02x", b & 0xff)));
+            }
+        }
+        
+        World finish() throws IOException {
+            endNumber();
+            if (w == null) {
+                throw error(line, column, "Missing map dimensions");
+            }
+            if (cells < totalCells) {
+                throw error(line, column, String.format("Expected %s cells, found %s", totalCells, cells));
+            }
+            return w;
+        }
+        
+        private void endNumber() throws IOException {
+            if (value < 0) {
+                return;
+            }
+            int number = (int) value;
+            value = -1;
+            
+            if (xDimension < 0) {
+                xDimension = checkDimension(number);
+            } else if (yDimension < 0) {
+                yDimension = checkDimension(number);
+                if ((long) xDimension * yDimension > StaticWorld.MAX_CELLS) {
+                    throw error(valueLine, valueColumn, String.format(
+                            "Map of %sx%s cells is too large, it can have at most %s cells",
+                            xDimension, yDimension, StaticWorld.MAX_CELLS));
+                }
+                totalCells = xDimension * yDimension;
+                w = new World(xDimension, yDimension);
+            } else if (cells < totalCells) {
+                if (number >= CellType.types.length) {
+                    throw error(valueLine, valueColumn, "Invalid cell type " + number);
+                }
+                int x = cells % xDimension, y = cells / xDimension;
+                w.grid[x][y] = new Cell(CellType.types[number], x, y);
+                cells++;
+            } else {
+                throw error(valueLine, valueColumn, String.format("Found more than the expected %s cells", cells));
+            }
+        }
+        
+        private int checkDimension(int number) throws IOException {
+            if (number <= 0) {
+                throw error(valueLine, valueColumn, "Map dimensions must be positive");
+            }
+            return number;
+        }
+        
+        private IOException error(int line, int column, String message) {
+            return new IOException(String.format("%s:%s:%s: %s", file, line, column, message));
+        }
+    }
 }
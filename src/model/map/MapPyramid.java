@@ -0,0 +1,165 @@
+package model.map;
+
+import java.io.File;
+import java.io.IOException;
+
+import model.world.Cell;
+import model.world.CellType;
+import model.world.StaticWorld;
+import model.world.World;
+
+/**
+ * A map at several resolutions, so that quick exploratory runs can be done
+ * on a coarse version of a map and final runs on the full one.
+ * 
+ * Level 0 is the map as loaded. Every cell of level k covers a block of
+ * 2^k x 2^k cells of level 0, and is classified from that block alone, so
+ * that all levels agree with each other:
+ * - it is walkable if more than a third of the block is walkable, the same
+ *   rule images are converted with (see {@link MapImage}), and then it is a
+ *   lamp if the block holds a lamp, or a path otherwise;
+ * - otherwise, it is the most common obstruction in the block.
+ * Blocks on the edges may be incomplete. The light of a coarse cell is the
+ * mean light of its block, rather than computed again from the coarse lamps:
+ * lamps reach a fixed number of cells (see {@link Lighting}), so a lamp
+ * would light an area 4^k times larger on level k. The navigation
+ * information is derived when the level is compiled, like for any other map.
+ * 
+ * Heat maps taken on one level can be projected onto another with
+ * {@link #project(double[][], int, int)}, to compare runs at different
+ * resolutions.
+ */
+public class MapPyramid {
+    private final World[] levels;
+
+    /**
+     * Builds a pyramid with the specified number of levels, the first of
+     * which is the provided world itself.
+     */
+    public MapPyramid(World base, int levelCount) {
+        if (levelCount <= 0) {
+            throw new IllegalArgumentException("A map pyramid needs at least one level");
+        }
+        levels = new World[levelCount];
+        levels[0] = base;
+        for (int level = 1; level < levelCount; level++) {
+            levels[level] = coarsen(base, 1 << level);
+        }
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Returns the world at the specified level, 0 being the finest.
+     */
+    public World getLevel(int level) {
+        return levels[level];
+    }
+
+    /**
+     * Writes every level to the specified directory as level-k.bmap (see
+     * {@link BinaryMap}), ready to be used as the map of a model.
+     */
+    public void write(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory: " + directory);
+        }
+        for (int level = 0; level < levels.length; level++) {
+            BinaryMap.write(new StaticWorld(levels[level]), new File(directory, "level-" + level + ".bmap"),
+                    BinaryMap.NAVIGATION);
+        }
+    }
+
+    private static World coarsen(World base, int factor) {
+        World w = new World((base.xDimension + factor - 1) / factor, (base.yDimension + factor - 1) / factor);
+        for (int x = 0; x < w.xDimension; x++) {
+            for (int y = 0; y < w.yDimension; y++) {
+                w.grid[x][y] = new Cell(classify(base, x * factor, y * factor, factor), x, y);
+                w.grid[x][y].light = averageLight(base, x * factor, y * factor, factor);
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Returns the mean light of the block of the world starting at the
+     * specified position.
+     */
+    private static double averageLight(World base, int startX, int startY, int factor) {
+        double sum = 0;
+        int cells = 0;
+        for (int x = startX; x < Math.min(base.xDimension, startX + factor); x++) {
+            for (int y = startY; y < Math.min(base.yDimension, startY + factor); y++) {
+                sum += base.grid[x][y].light;
+                cells++;
+            }
+        }
+        return sum / cells;
+    }
+
+    /**
+     * Returns the type of the coarse cell covering the block of the world
+     * starting at the specified position.
+     */
+    private static CellType classify(World base, int startX, int startY, int factor) {
+        int[] counts = new int[CellType.types.length];
+        int cells = 0, walkable = 0;
+        for (int x = startX; x < Math.min(base.xDimension, startX + factor); x++) {
+            for (int y = startY; y < Math.min(base.yDimension, startY + factor); y++) {
+                CellType type = base.grid[x][y].type;
+                counts[type.ordinal()]++;
+                cells++;
+                if (!type.obstructsMovement) {
+                    walkable++;
+                }
+            }
+        }
+        
+        if (walkable > cells / 3) {
+            return counts[CellType.LAMP.ordinal()] > 0 ? CellType.LAMP : CellType.PATH;
+        }
+        CellType obstruction = null;
+        for (CellType type : CellType.types) {
+            if (type.obstructsMovement && (obstruction == null || counts[type.ordinal()] > counts[obstruction.ordinal()])) {
+                obstruction = type;
+            }
+        }
+        return obstruction;
+    }
+
+    /**
+     * Projects a heat map, indexed by [x][y], from one level of the pyramid
+     * onto another. Projecting onto a coarser level adds up the values of
+     * each block; projecting onto a finer level spreads each value evenly
+     * over the cells of its block. Either way, the total is the same.
+     */
+    public double[][] project(double[][] heatMap, int fromLevel, int toLevel) {
+        World from = levels[fromLevel], to = levels[toLevel];
+        double[][] projected = new double[to.xDimension][to.yDimension];
+        if (toLevel >= fromLevel) {
+            int factor = 1 << (toLevel - fromLevel);
+            for (int x = 0; x < from.xDimension; x++) {
+                for (int y = 0; y < from.yDimension; y++) {
+                    projected[x / factor][y / factor] += heatMap[x][y];
+                }
+            }
+        } else {
+            int factor = 1 << (fromLevel - toLevel);
+            for (int x = 0; x < from.xDimension; x++) {
+                for (int y = 0; y < from.yDimension; y++) {
+                    int blockX = Math.min(to.xDimension, (x + 1) * factor) - x * factor;
+                    int blockY = Math.min(to.yDimension, (y + 1) * factor) - y * factor;
+                    double share = heatMap[x][y] / (blockX * blockY);
+                    for (int i = x * factor; i < x * factor + blockX; i++) {
+                        for (int j = y * factor; j < y * factor + blockY; j++) {
+                            projected[i][j] = share;
+                        }
+                    }
+                }
+            }
+        }
+        return projected;
+    }
+}
@@ -0,0 +1,44 @@
+package model.map;
+
+import java.io.File;
+
+import model.world.World;
+
+public final class MapPyramidCLI {
+
+    private MapPyramidCLI() {}
+
+    /**
+     * Builds a pyramid of the specified number of levels from a .map or .jpeg
+     * map (see {@link MapPyramid}) and writes every level to the output
+     * directory as level-k.bmap. Images are converted with the optional
+     * scale and road threshold (see {@link MapImage}).
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: MapPyramidCLI <input .map or .jpeg> <output directory> <levels> [image scale] [road threshold]");
+            System.exit(1);
+        }
+
+        File input = new File(args[0]);
+        World base;
+        if (input.getName().endsWith(".jpeg")) {
+            int scale = args.length > 3 ? Integer.parseInt(args[3]) : MapImage.DEFAULT_SCALE;
+            int roadThreshold = args.length > 4 ? Integer.parseInt(args[4]) : MapImage.DEFAULT_ROAD_THRESHOLD;
+            base = MapImage.loadWorldFromImage(input, scale, roadThreshold);
+        } else {
+            base = MapParser.read(input);
+        }
+        if (base == null) {
+            throw new Exception("Could not load map: " + input);
+        }
+
+        MapPyramid pyramid = new MapPyramid(base, Integer.parseInt(args[2]));
+        File output = new File(args[1]);
+        pyramid.write(output);
+        for (int level = 0; level < pyramid.getLevelCount(); level++) {
+            World w = pyramid.getLevel(level);
+            System.out.format("Level %d: %sx%s\n", level, w.xDimension, w.yDimension);
+        }
+    }
+}
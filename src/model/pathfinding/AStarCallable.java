@@ -5,7 +5,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.concurrent.Callable;
-import java.util.function.BiFunction;
+import java.util.function.IntBinaryOperator;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import model.action.Direction;
@@ -23,13 +24,17 @@ class AStarCallable implements Callable<List<Direction>> {
     private Point source, destination;
     private List<Point> closedPoints;
     private PriorityQueue<Point> openPoints;
-    private BiFunction<Integer, Integer, Boolean> occupiedHandler;
+    private IntBinaryOperator directionsHandler;
     private int limit;
     
-    public AStarCallable(BiFunction<Integer, Integer, Boolean> occupiedHandler, int fromX, int fromY, int toX, int toY, int limit) {
+    /**
+     * The directions handler returns the directions in which it is possible to step from
+     * the given coordinates, as a mask of {@link Direction#mask} bits.
+     */
+    public AStarCallable(IntBinaryOperator directionsHandler, int fromX, int fromY, int toX, int toY, int limit) {
         super();
         this.limit = limit;
-        this.occupiedHandler = occupiedHandler;
+        this.directionsHandler = directionsHandler;
         this.source = new Point(fromX, fromY);
         this.destination = new Point(toX, toY);
         this.openPoints = new PriorityQueue<>((Point o1, Point o2) -> o1.getScore() - o2.getScore());
@@ -47,7 +52,7 @@ class AStarCallable implements Callable<List<Direction>> {
 
             List<Point> neighbourhood = getManhattanNeighborhood(currentPosition);
             for (Point neighbour : neighbourhood) {
-                if (!occupiedHandler.apply(neighbour.x, neighbour.y) && !closedPoints.contains(neighbour)) {
+                if (!closedPoints.contains(neighbour)) {
 
                     Point potentialNeighbour = openPoints.stream().filter(p -> p.equals(neighbour)).findAny()
                             .orElse(new Point(neighbour.x, neighbour.y));
@@ -102,7 +107,9 @@ class AStarCallable implements Callable<List<Direction>> {
             
             nextPoint = nextPoint.parent;
         }
-        log.fine("Finished computing path from " + source + " to " + destination);
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Finished computing path from " + source + " to " + destination);
+        }
         return directions;
     }
     
@@ -161,13 +168,21 @@ class AStarCallable implements Callable<List<Direction>> {
         return Math.abs(from.x - to.x) + Math.abs(from.y - to.y);
     }
 
+    /**
+     * Returns the neighbours of the provided point which can be stepped on.
+     */
     private List<Point> getManhattanNeighborhood(Point from) {
         ArrayList<Point> res = new ArrayList<Point>(4);
-
-        res.add(new Point(from.x + 1, from.y));
-        res.add(new Point(from.x - 1, from.y));
-        res.add(new Point(from.x, from.y + 1));
-        res.add(new Point(from.x, from.y - 1));
+        int directions = directionsHandler.applyAsInt(from.x, from.y);
+
+        if ((directions & Direction.RIGHT.mask) != 0)
+            res.add(new Point(from.x + 1, from.y));
+        if ((directions & Direction.LEFT.mask) != 0)
+            res.add(new Point(from.x - 1, from.y));
+        if ((directions & Direction.DOWN.mask) != 0)
+            res.add(new Point(from.x, from.y + 1));
+        if ((directions & Direction.UP.mask) != 0)
+            res.add(new Point(from.x, from.y - 1));
 
         return res;
     }
@@ -1,14 +1,15 @@
 package model.pathfinding;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 import model.action.Direction;
 import model.world.WorldWrapper;
@@ -18,12 +19,25 @@ import model.world.WorldWrapper;
  */
 public class ConcurrentPathFinder extends PathFinder {
     private ThreadPoolExecutor threadPool;
-    private Map<Integer, FutureTask<List<Direction>>> pendingJobs;
+    private Map<Long, PathJob> pendingJobs;
+    
+    /**
+     * A path computation which remembers its end points.
+     */
+    private static class PathJob extends FutureTask<List<Direction>> {
+        final int[] points;
+        
+        PathJob(AStarCallable callable, int fromX, int fromY, int toX, int toY) {
+            super(callable);
+            this.points = new int[] { fromX, fromY, toX, toY };
+        }
+    }
     
     public ConcurrentPathFinder(WorldWrapper worldWrapper) {
         super(worldWrapper);
         threadPool = new ThreadPoolExecutor(4, 4, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
-        pendingJobs = new HashMap<>();
+        // agents may request paths from several threads at once
+        pendingJobs = new ConcurrentHashMap<>();
     }
 
     /**
@@ -34,24 +48,18 @@ public class ConcurrentPathFinder extends PathFinder {
      */
     @Override
     public List<Direction> computePath(int fromX, int fromY, int toX, int toY) {
-        FutureTask<List<Direction>> routeTask;
         List<Direction> route = null;
-        int job = Objects.hash(fromX, fromY, toX, toY);
+        long job = getKey(fromX, fromY, toX, toY);
+        PathJob routeTask = getJob(job, fromX, fromY, toX, toY);
         
-        if (pendingJobs.containsKey(job)) {
-            routeTask = pendingJobs.get(job);
-        } else {
-            routeTask = createJob(fromX, fromY, toX, toY);
-        }
-        
-        if (routeTask.isDone()) {
-            pendingJobs.remove(job);
+        // only the caller which takes the finished job out of the map collects its route
+        if (routeTask.isDone() && pendingJobs.remove(job, routeTask)) {
             try {
                 route = routeTask.get();
             } catch (InterruptedException | ExecutionException e) {
                 log.severe("Failed to calculate path, retrying");
                 route = null;
-                createJob(fromX, fromY, toX, toY);
+                getJob(job, fromX, fromY, toX, toY);
             }
         }
         
@@ -59,20 +67,50 @@ public class ConcurrentPathFinder extends PathFinder {
     }
     
     /**
-     * Creates the job specified by the argument, schedules it and returns the created FutureTask.
+     * Returns the pending job for the specified path, creating and scheduling it if there is
+     * none. Callers asking for the same path at once all get the same job.
      */
-    private FutureTask<List<Direction>> createJob(int fromX, int fromY, int toX, int toY) {
-        log.finest(String.format("Computing path from [%s, %s] to [%s, %s]", 
-                fromX, fromY, toX, toY));
-        FutureTask<List<Direction>> routeTask = new FutureTask<>(
-                new AStarCallable(worldWrapper::isMovementObstruction, 
-                fromX, fromY, toX, toY, Integer.MAX_VALUE));
-        pendingJobs.put(Objects.hash(fromX, fromY, toX, toY), routeTask);
-        log.finest(String.format("%s pending jobs", pendingJobs.size()));
-        threadPool.execute(routeTask);
+    private PathJob getJob(long job, int fromX, int fromY, int toX, int toY) {
+        PathJob routeTask = pendingJobs.get(job);
+        if (routeTask != null) {
+            return routeTask;
+        }
+        PathJob created = new PathJob(
+                new AStarCallable(worldWrapper::getWalkableDirections, 
+                fromX, fromY, toX, toY, Integer.MAX_VALUE), fromX, fromY, toX, toY);
+        routeTask = pendingJobs.computeIfAbsent(job, key -> created);
+        if (routeTask == created) {
+            if (log.isLoggable(Level.FINEST)) {
+                log.finest(String.format("Computing path from [%s, %s] to [%s, %s], %s pending jobs", 
+                        fromX, fromY, toX, toY, pendingJobs.size()));
+            }
+            threadPool.execute(created);
+        }
         return routeTask;
     }
 
+    /**
+     * Returns the key of the specified path: the ids of its end points, which are exact
+     * since every cell has its own id.
+     */
+    private long getKey(int fromX, int fromY, int toX, int toY) {
+        return (long) worldWrapper.getId(fromX, fromY) << 32 | (worldWrapper.getId(toX, toY) & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public List<int[]> getPendingPaths() {
+        List<int[]> paths = new ArrayList<>();
+        for (PathJob job : pendingJobs.values()) {
+            paths.add(job.points.clone());
+        }
+        return paths;
+    }
+    
+    @Override
+    public void schedulePath(int fromX, int fromY, int toX, int toY) {
+        getJob(getKey(fromX, fromY, toX, toY), fromX, fromY, toX, toY);
+    }
+
     /**
      * Terminates the thread pool, any computations in progress are interrupted and discarded.
      */
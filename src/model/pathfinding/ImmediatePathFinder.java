@@ -22,7 +22,7 @@ public class ImmediatePathFinder extends PathFinder {
     @Override
     public List<Direction> computePath(int fromX, int fromY, int toX, int toY) {
         try {
-            return new AStarCallable(worldWrapper::isMovementObstruction, 
+            return new AStarCallable(worldWrapper::getWalkableDirections, 
                     fromX, fromY, toX, toY, Integer.MAX_VALUE).call();
         } catch (Exception e) {
             log.severe("Failed to acquire path, returning null");
@@ -1,5 +1,6 @@
 package model.pathfinding;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -17,6 +18,24 @@ public abstract class PathFinder {
 
     public abstract List<Direction> computePath(int fromX, int fromY, int toX, int toY);
 
+    /**
+     * Returns the paths which have been requested but not collected yet, as
+     * {fromX, fromY, toX, toY} arrays. Path finders which compute paths
+     * immediately never have any.
+     */
+    public List<int[]> getPendingPaths() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Starts computing the specified path, if it is not being computed
+     * already, without waiting for it. This is used to restore the pending
+     * paths of a checkpoint. Path finders which compute paths immediately
+     * ignore it.
+     */
+    public void schedulePath(int fromX, int fromY, int toX, int toY) {
+    }
+
     /**
      * Computes a detour around immediate obstructions. This method always blocks while the
      * route is being computed. It returns true if the provided route was modified to dodge
@@ -48,7 +67,7 @@ public abstract class PathFinder {
 
         log.finest("Calculating detour");
         try {
-            List<Direction> additionalRoute = new AStarCallable((cx, cy) -> !worldWrapper.isFree(cx, cy), 
+            List<Direction> additionalRoute = new AStarCallable(worldWrapper::getFreeDirections, 
                     fromX, fromY, x, y, limit).call();
             if (!additionalRoute.isEmpty()) {
                 currentRoute.subList(0, elements).clear();
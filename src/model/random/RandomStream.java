@@ -0,0 +1,121 @@
+package model.random;
+
+/**
+ * A fast, splittable pseudo-random number generator. This implements the
+ * SplitMix64 algorithm, the same one behind {@link java.util.SplittableRandom},
+ * but unlike the standard library version, its state can be read and restored.
+ *
+ * A stream is not thread-safe. Instead, each thread (or agent, or subsystem)
+ * should get a stream of its own, either derived from a seed or split off an
+ * existing stream. Streams split off the same parent are statistically
+ * independent of each other and of the parent.
+ */
+public final class RandomStream {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private long seed;
+    private final long gamma;
+
+    /**
+     * Creates a stream from the specified seed.
+     */
+    public RandomStream(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    /**
+     * Creates a stream with the specified state, as returned by
+     * {@link #getSeed()} and {@link #getGamma()}. The gamma must be odd.
+     */
+    public RandomStream(long seed, long gamma) {
+        if ((gamma & 1) == 0) {
+            throw new IllegalArgumentException("Stream gamma must be odd: " + gamma);
+        }
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    /**
+     * Returns a new stream split off this one. This advances this stream.
+     */
+    public RandomStream split() {
+        return new RandomStream(nextLong(), mixGamma(nextSeed()));
+    }
+
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    public int nextInt() {
+        return mix32(nextSeed());
+    }
+
+    /**
+     * Returns a uniformly distributed int between 0 (inclusive) and the
+     * specified bound (exclusive), which must be positive.
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Bound must be positive: " + bound);
+        }
+        int r = mix32(nextSeed());
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+            // power of two
+            r &= m;
+        } else {
+            // reject the values which would make the result biased
+            for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = mix32(nextSeed()) >>> 1)
+                ;
+        }
+        return r;
+    }
+
+    /**
+     * Returns a uniformly distributed double between 0 (inclusive) and
+     * 1 (exclusive).
+     */
+    public double nextDouble() {
+        return (mix64(nextSeed()) >>> 11) * DOUBLE_UNIT;
+    }
+
+    public boolean nextBoolean() {
+        return mix32(nextSeed()) < 0;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getGamma() {
+        return gamma;
+    }
+
+    private long nextSeed() {
+        return seed += gamma;
+    }
+
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int mix32(long z) {
+        z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+        return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+    }
+
+    /**
+     * Turns a seed into a gamma: odd, and with enough bit transitions that
+     * consecutive seeds look nothing alike.
+     */
+    static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int transitions = Long.bitCount(z ^ (z >>> 1));
+        return transitions < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
@@ -0,0 +1,102 @@
+package model.random;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * All the randomness used by a single model, derived from its master seed.
+ *
+ * Each subsystem of the model draws from a stream of its own, derived
+ * directly from the master seed and the subsystem, so that changing how
+ * often one subsystem draws does not change the numbers seen by the others.
+ * Each agent also gets a stream of its own, split off the AGENTS stream when
+ * it is created; agents are always created in a deterministic order, so the
+ * same agent gets the same stream every time.
+ *
+ * Nothing here is shared between models, so any number of models can run in
+ * the same JVM, and agents can draw numbers from different threads without
+ * contention or losing reproducibility.
+ */
+public class RandomStreams {
+
+    public enum Subsystem {
+        /**
+         * The order in which agents act.
+         */
+        SCHEDULE,
+        /**
+         * Where new agents are placed in the world.
+         */
+        PLACEMENT,
+        /**
+         * The characteristics of new agents.
+         */
+        ATTRIBUTES,
+        /**
+         * The parent of every agent's own stream.
+         */
+        AGENTS
+    }
+
+    private final long seed;
+    private final RandomStream[] subsystems;
+
+    private RandomStreams(long seed, RandomStream[] subsystems) {
+        this.seed = seed;
+        this.subsystems = subsystems;
+    }
+
+    public RandomStreams(long seed) {
+        this.seed = seed;
+        this.subsystems = new RandomStream[Subsystem.values().length];
+        for (Subsystem subsystem : Subsystem.values()) {
+            long subsystemSeed = seed + (subsystem.ordinal() + 1) * 0x9e3779b97f4a7c15L;
+            subsystems[subsystem.ordinal()] = new RandomStream(RandomStream.mix64(subsystemSeed),
+                    RandomStream.mixGamma(subsystemSeed));
+        }
+    }
+
+    /**
+     * Returns the stream of the specified subsystem. This is always the same
+     * object for a given subsystem.
+     */
+    public RandomStream get(Subsystem subsystem) {
+        return subsystems[subsystem.ordinal()];
+    }
+
+    /**
+     * Returns a new stream for a newly created agent.
+     */
+    public RandomStream newAgentStream() {
+        return get(Subsystem.AGENTS).split();
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Writes the master seed and the current state of every subsystem stream.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(seed);
+        for (RandomStream stream : subsystems) {
+            out.writeLong(stream.getSeed());
+            out.writeLong(stream.getGamma());
+        }
+    }
+
+    /**
+     * Reads streams written by {@link #write(DataOutput)}. The streams carry on
+     * exactly where the written ones were.
+     */
+    public static RandomStreams read(DataInput in) throws IOException {
+        long seed = in.readLong();
+        RandomStream[] subsystems = new RandomStream[Subsystem.values().length];
+        for (int i = 0; i < subsystems.length; i++) {
+            subsystems[i] = new RandomStream(in.readLong(), in.readLong());
+        }
+        return new RandomStreams(seed, subsystems);
+    }
+}
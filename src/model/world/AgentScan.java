@@ -0,0 +1,181 @@
+package model.world;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.ToDoubleFunction;
+
+import model.agent.Agent;
+import utils.Utils;
+
+/**
+ * Looks for the agents visible around a position, visiting them in a spiral
+ * so that they are naturally in order of proximity.
+ *
+ * A scan keeps the state of the query it is running in fields, so that the
+ * queries allocate nothing. In return, a scan can only run one query at a
+ * time: every agent has its own, and {@link WorldWrapper} creates a new one
+ * for each of its queries.
+ */
+public final class AgentScan {
+    private final WorldState world;
+    private final StaticWorld map;
+
+    // the state of the current line of sight, see isVisible()
+    private int target;
+    private boolean visible;
+    private final IntPredicate sightLine;
+
+    // the state of the current query, see visit()
+    private static final int COLLECT = 0, COUNT = 1, FIND_BEST = 2;
+    private int query;
+    private Function<Agent, Boolean> filter;
+    private List<Agent> buffer;
+    private int count, limit;
+    private ToDoubleFunction<Agent> score;
+    private Agent best;
+    private double bestScore;
+
+    public AgentScan(WorldState world) {
+        this.world = world;
+        this.map = world.map;
+        this.sightLine = id -> {
+            visible = id == target;
+            return !map.obstructsView(id);
+        };
+    }
+
+    /**
+     * Writes the agents within the range around the position which satisfy
+     * the filter into the buffer, in order of proximity. The buffer is
+     * cleared first and returned for convenience.
+     */
+    public List<Agent> collect(int x, int y, double range, Function<Agent, Boolean> filter, List<Agent> buffer) {
+        buffer.clear();
+        this.buffer = buffer;
+        scan(COLLECT, x, y, range, filter);
+        this.buffer = null;
+        return buffer;
+    }
+
+    /**
+     * Counts the agents within the range around the position which satisfy
+     * the filter, but stops looking as soon as the limit is reached. In other
+     * words, this returns the number of matching agents or the limit,
+     * whichever is smallest.
+     */
+    public int count(int x, int y, double range, Function<Agent, Boolean> filter, int limit) {
+        if (limit <= 0) {
+            return 0;
+        }
+        this.count = 0;
+        this.limit = limit;
+        scan(COUNT, x, y, range, filter);
+        return count;
+    }
+
+    /**
+     * Returns the agent with the highest score within the range around the
+     * position, out of those which satisfy the filter, or null if none do.
+     * Ties are resolved in favour of the nearest agent. The filter is executed
+     * exactly once for every visible agent, in order of proximity.
+     */
+    public Agent findBest(int x, int y, double range, Function<Agent, Boolean> filter,
+            ToDoubleFunction<Agent> score) {
+        this.score = score;
+        this.best = null;
+        this.bestScore = Double.NEGATIVE_INFINITY;
+        scan(FIND_BEST, x, y, range, filter);
+        Agent found = best;
+        this.score = null;
+        this.best = null;
+        return found;
+    }
+
+    /**
+     * Passes every agent visible within the range around the position to
+     * visit(), in order of proximity, until it returns false.
+     */
+    private void scan(int query, int x, int y, double range, Function<Agent, Boolean> filter) {
+        this.query = query;
+        this.filter = filter;
+        int visionRadius = (int) Math.floor(range);
+        int limit = 2 * visionRadius + 1;
+
+        // describe a spiral around the specified position, so that agents are naturally visited by distance
+        int currentX = x, currentY = y, deltaX = 1, deltaY = 0, runLength = 1, swap;
+        search: while (deltaX == 1 || runLength < limit) {
+            for (int i = 0; i < runLength; i++) {
+                currentX += deltaX;
+                currentY += deltaY;
+                Agent agent = getVisibleAgent(x, y, currentX, currentY, range);
+                if (agent != null && !visit(agent)) {
+                    break search;
+                }
+            }
+
+            // increment run length every 2 runs
+            if (deltaX == 0) {
+                runLength++;
+            }
+
+            // 90° clockwise turn
+            swap = deltaY;
+            deltaY = deltaX;
+            deltaX = -swap;
+        }
+        this.filter = null;
+    }
+
+    /**
+     * Handles a visible agent for the current query. Returns false if the
+     * query needs no more agents.
+     */
+    private boolean visit(Agent agent) {
+        if (!filter.apply(agent)) {
+            return true;
+        }
+        switch (query) {
+        case COLLECT:
+            buffer.add(agent);
+            return true;
+        case COUNT:
+            return ++count < limit;
+        default:
+            double agentScore = score.applyAsDouble(agent);
+            if (best == null || agentScore > bestScore) {
+                best = agent;
+                bestScore = agentScore;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the occupant of the cell at [cellX, cellY] if there is one and
+     * it can be seen from [x, y], or null otherwise.
+     */
+    private Agent getVisibleAgent(int x, int y, int cellX, int cellY, double range) {
+        if (!map.withinBounds(cellX, cellY)) {
+            return null;
+        }
+        Agent agent = world.getOccupant(cellX, cellY);
+        return agent != null && isVisible(x, y, agent.x, agent.y, range) ? agent : null;
+    }
+
+    /**
+     * Returns true if position [toX, toY] can be seen from [fromX, fromY],
+     * taking into account the range and visual obstructions along the line of
+     * sight. The target is visible if the line reaches it before any
+     * obstruction.
+     */
+    public boolean isVisible(int fromX, int fromY, int toX, int toY, double range) {
+        if (range < Utils.getDistance(toX - fromX, toY - fromY)) {
+            return false;
+        }
+        target = map.getId(toX, toY);
+        visible = false;
+        map.computeLine(fromX, fromY, toX, toY, sightLine);
+        return visible;
+    }
+}
@@ -0,0 +1,173 @@
+package model.world;
+
+import java.util.Arrays;
+
+import model.random.RandomStream;
+
+/**
+ * Indexes the cells of a world so that random cells can be sampled in
+ * constant time, rather than by trial and error over the whole grid.
+ *
+ * Cells are identified by {@code x * yDimension + y}. The fixed list of every
+ * walkable cell (cells which do not obstruct movement) comes from the shared
+ * {@link StaticWorld}; the index keeps a dynamic set of the free ones
+ * (walkable and unoccupied). The free set is stored densely alongside the
+ * position of each cell in it, so that cells can be picked, inserted and
+ * removed in constant time. The order of the free set only depends on the
+ * sequence of updates, so sampling is reproducible for a given seed.
+ *
+ * The free set takes 8 bytes per cell and starts with every walkable cell,
+ * which is too much for tiled maps. For those, only the number of free cells
+ * is kept: free cells are sampled by drawing walkable cells until one is not
+ * occupied, according to the {@link CellMasks}. This is just as reproducible,
+ * and takes a single draw as long as agents are few compared to walkable
+ * cells, but it draws different cells than the free set would.
+ */
+public class CellIndex {
+    private final StaticWorld map;
+    private final CellMasks masks;
+    private final int yDimension;
+    // null for tiled maps, see above
+    private final int[] free;
+    private final int[] freePosition;
+    private int freeCount = 0;
+
+    /**
+     * Builds the index for the provided map, with every walkable cell free.
+     * The masks are those of the same world, and must have every cell
+     * unoccupied.
+     */
+    public CellIndex(StaticWorld map, CellMasks masks) {
+        this.map = map;
+        this.masks = masks;
+        this.yDimension = map.yDimension;
+        if (map.isTiled()) {
+            free = null;
+            freePosition = null;
+            freeCount = map.getWalkableCount();
+            return;
+        }
+        int cells = map.xDimension * map.yDimension;
+        free = new int[cells];
+        freePosition = new int[cells];
+        Arrays.fill(freePosition, -1);
+
+        for (int i = 0; i < map.getWalkableCount(); i++) {
+            int id = map.getWalkableCell(i);
+            setFree(getX(id), getY(id), true);
+        }
+    }
+
+    /**
+     * Returns the id of the cell at the specified position.
+     */
+    public int getId(int x, int y) {
+        return x * yDimension + y;
+    }
+
+    public int getX(int id) {
+        return id / yDimension;
+    }
+
+    public int getY(int id) {
+        return id % yDimension;
+    }
+
+    /**
+     * Adds the cell at the specified position to the free set or removes it
+     * from it. Adding a cell which is already free or removing one which is not
+     * has no effect, except on tiled maps, where only the number of free cells
+     * is kept: there, this must only be called when a cell actually changes.
+     */
+    public void setFree(int x, int y, boolean isFree) {
+        if (free == null) {
+            freeCount += isFree ? 1 : -1;
+            return;
+        }
+        int id = getId(x, y);
+        int position = freePosition[id];
+        if (isFree && position < 0) {
+            free[freeCount] = id;
+            freePosition[id] = freeCount++;
+        } else if (!isFree && position >= 0) {
+            // move the last free cell into the gap
+            int last = free[--freeCount];
+            free[position] = last;
+            freePosition[last] = position;
+            freePosition[id] = -1;
+        }
+    }
+
+    /**
+     * Returns the id of a random walkable cell, or -1 if there are none.
+     */
+    public int getRandomWalkable(RandomStream random) {
+        int walkableCount = map.getWalkableCount();
+        return walkableCount == 0 ? -1 : map.getWalkableCell(random.nextInt(walkableCount));
+    }
+
+    /**
+     * Returns the id of a random free cell, or -1 if there are none.
+     */
+    public int getRandomFree(RandomStream random) {
+        if (freeCount == 0) {
+            return -1;
+        }
+        if (free != null) {
+            return free[random.nextInt(freeCount)];
+        }
+        while (true) {
+            int id = getRandomWalkable(random);
+            if (!masks.isOccupied(id)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the index keeps the free cells in an order, which
+     * sampling depends on, that is if the map is not tiled.
+     */
+    boolean hasFreeOrder() {
+        return free != null;
+    }
+
+    /**
+     * Returns the id of the free cell at the specified position in the free
+     * set, between 0 and {@link #getFreeCount()} - 1. The index must keep a
+     * free set, see {@link #hasFreeOrder()}.
+     */
+    int getFree(int position) {
+        return free[position];
+    }
+
+    /**
+     * Reorders the free set to match the provided ids, which must be exactly
+     * the cells which are currently free. Sampling depends on the order of the
+     * free set, so this is needed to restore an index exactly. If the index
+     * keeps no free set, there is nothing to reorder.
+     */
+    void setFreeOrder(int[] ids) {
+        if (ids.length != freeCount) {
+            throw new IllegalStateException("Expected " + freeCount + " free cells, got " + ids.length);
+        }
+        if (free == null) {
+            return;
+        }
+        for (int position = 0; position < ids.length; position++) {
+            if (freePosition[ids[position]] < 0) {
+                throw new IllegalStateException("Cell is not free: " + ids[position]);
+            }
+            free[position] = ids[position];
+            freePosition[ids[position]] = position;
+        }
+    }
+
+    public int getWalkableCount() {
+        return map.getWalkableCount();
+    }
+
+    public int getFreeCount() {
+        return freeCount;
+    }
+}
@@ -0,0 +1,96 @@
+package model.world;
+
+import model.action.Direction;
+
+/**
+ * Packed per-cell information used to answer the movement questions asked
+ * most often by agents and path finders, with a couple of bit operations.
+ *
+ * Cells are identified by {@code x * yDimension + y}, as in CellIndex. The
+ * walkable bits and the masks of walkable neighbours, one bit per
+ * {@link Direction} (see {@link Direction#mask}), are fixed and come from the
+ * shared {@link StaticWorld}. The occupied bit of every cell is kept here, in
+ * a bitset, and must be kept up to date by whoever moves agents around. The
+ * bitset is split in pages like the rest of the state of the world, see
+ * {@link WorldState}.
+ */
+public class CellMasks {
+    private final StaticWorld map;
+    private final int yDimension, pageBits, pageMask;
+    private final long[][] occupied;
+
+    /**
+     * Creates the masks for the provided map, with every cell unoccupied.
+     */
+    public CellMasks(StaticWorld map) {
+        this.map = map;
+        this.yDimension = map.yDimension;
+        this.pageBits = WorldState.getPageBits(map);
+        this.pageMask = (1 << pageBits) - 1;
+        occupied = new long[WorldState.getPageCount(map)][];
+        if (!map.isTiled()) {
+            occupied[0] = new long[(map.xDimension * yDimension + 63) >> 6];
+        }
+    }
+
+    public boolean isWalkable(int id) {
+        return map.isWalkable(id);
+    }
+
+    public boolean isOccupied(int id) {
+        long[] page = occupied[id >>> pageBits];
+        return page != null && (page[(id & pageMask) >> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * Returns true if the cell is walkable and not occupied.
+     */
+    public boolean isFree(int id) {
+        return map.isWalkable(id) && !isOccupied(id);
+    }
+
+    public void setOccupied(int id, boolean isOccupied) {
+        long[] page = occupied[id >>> pageBits];
+        if (page == null) {
+            if (!isOccupied) {
+                return;
+            }
+            page = occupied[id >>> pageBits] = new long[1 << (pageBits - 6)];
+        }
+        if (isOccupied) {
+            page[(id & pageMask) >> 6] |= 1L << id;
+        } else {
+            page[(id & pageMask) >> 6] &= ~(1L << id);
+        }
+    }
+
+    /**
+     * Returns the directions in which the neighbours of the cell are walkable,
+     * as a mask of {@link Direction#mask} bits. Neighbours out of bounds are
+     * never walkable.
+     */
+    public int getWalkableDirections(int id) {
+        return map.getWalkableDirections(id);
+    }
+
+    /**
+     * Returns the directions in which the neighbours of the cell are free to
+     * be occupied, as a mask of {@link Direction#mask} bits.
+     */
+    public int getFreeDirections(int id) {
+        int mask = map.getWalkableDirections(id);
+        if ((mask & Direction.LEFT.mask) != 0 && isOccupied(id - yDimension)) {
+            mask &= ~Direction.LEFT.mask;
+        }
+        if ((mask & Direction.RIGHT.mask) != 0 && isOccupied(id + yDimension)) {
+            mask &= ~Direction.RIGHT.mask;
+        }
+        if ((mask & Direction.UP.mask) != 0 && isOccupied(id - 1)) {
+            mask &= ~Direction.UP.mask;
+        }
+        if ((mask & Direction.DOWN.mask) != 0 && isOccupied(id + 1)) {
+            mask &= ~Direction.DOWN.mask;
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,137 @@
+package model.world;
+
+import java.util.stream.IntStream;
+
+import model.map.Lighting;
+
+/**
+ * The light cast by each group of lamps of a {@link LightingSchedule},
+ * computed once so that groups can be switched on and off without computing
+ * the lighting again.
+ *
+ * The layer of a group covers the cells its lamps can reach: its rectangle,
+ * widened by the radius of the lamps. The light of the lamps in no group is
+ * the light of the map, except in the patch of cells which the groups reach,
+ * where the groups must be left out. Only that patch has a layer, so maps of
+ * any size, tiled ones included, need no more memory than the groups cover.
+ */
+final class LampLayers {
+    private final StaticWorld map;
+    // the bounds of the layer of every group, {minX, minY, maxX, maxY}, the first being the patch
+    private final int[][] bounds;
+    private final double[][] layers;
+
+    LampLayers(StaticWorld map, LightingSchedule schedule) {
+        this.map = map;
+        int groups = schedule.getGroupCount();
+        int[][] rectangles = new int[groups][];
+        bounds = new int[groups][];
+        layers = new double[groups][];
+        Lighting.TypeGrid types = (x, y) -> map.withinBounds(x, y) ? map.getType(x, y) : null;
+
+        int[] patch = null;
+        for (int group = 1; group < groups; group++) {
+            rectangles[group] = clip(schedule.getGroupBounds(group), 0);
+            bounds[group] = clip(rectangles[group], Lighting.RADIUS_INT);
+            patch = union(patch, bounds[group]);
+        }
+        bounds[0] = patch;
+        for (int group = 0; group < groups; group++) {
+            int[] area = group == 0 ? clip(patch, Lighting.RADIUS_INT) : rectangles[group];
+            IntStream.Builder lampX = IntStream.builder(), lampY = IntStream.builder();
+            for (int x = area[0]; x <= area[2]; x++) {
+                for (int y = area[1]; y <= area[3]; y++) {
+                    if (map.getType(x, y) == CellType.LAMP && getGroup(rectangles, x, y) == group) {
+                        lampX.add(x);
+                        lampY.add(y);
+                    }
+                }
+            }
+            int[] b = bounds[group];
+            layers[group] = Lighting.computeLayer(types, lampX.build().toArray(), lampY.build().toArray(),
+                    b[0], b[1], b[2], b[3]);
+        }
+    }
+
+    /**
+     * Returns the bounds of the cells the specified group of lamps can light,
+     * as {minX, minY, maxX, maxY}, inclusive. The bounds are empty (minX >
+     * maxX) if the group lies outside the map. Group 0 lights the whole map.
+     */
+    int[] getBounds(int group) {
+        return group == 0 ? new int[] { 0, 0, map.xDimension - 1, map.yDimension - 1 } : bounds[group].clone();
+    }
+
+    /**
+     * Returns the light cast on the specified cell by the groups of lamps
+     * which are on, by group.
+     */
+    double getLight(int x, int y, boolean[] on) {
+        double light = 0;
+        if (on[0]) {
+            light = contains(bounds[0], x, y) ? layers[0][getIndex(bounds[0], x, y)] : map.getLight(x, y);
+        }
+        for (int group = 1; group < layers.length; group++) {
+            if (on[group] && contains(bounds[group], x, y)) {
+                light = Math.max(light, layers[group][getIndex(bounds[group], x, y)]);
+            }
+        }
+        return light;
+    }
+
+    /**
+     * Replaces the light of the cells of the patch in the provided array, by
+     * id, which must hold the light of every cell as if there were no groups:
+     * the brightest of the natural light and the light of the map if the
+     * lamps in no group are on.
+     */
+    void blendPatch(double[] into, boolean[] on, double naturalLight) {
+        int[] patch = bounds[0];
+        for (int x = patch[0]; x <= patch[2]; x++) {
+            for (int y = patch[1]; y <= patch[3]; y++) {
+                into[map.getId(x, y)] = Math.max(naturalLight, getLight(x, y, on));
+            }
+        }
+    }
+
+    /**
+     * Returns the group of the lamp at the specified position: the first
+     * rectangle it is in, or 0 if it is in none.
+     */
+    private static int getGroup(int[][] rectangles, int x, int y) {
+        for (int group = 1; group < rectangles.length; group++) {
+            if (contains(rectangles[group], x, y)) {
+                return group;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the bounds widened by the margin on every side, and clipped to
+     * the map. Bounds entirely out of the map give an empty rectangle.
+     */
+    private int[] clip(int[] b, int margin) {
+        int[] clipped = { Math.max(0, b[0] - margin), Math.max(0, b[1] - margin),
+                Math.min(map.xDimension - 1, b[2] + margin), Math.min(map.yDimension - 1, b[3] + margin) };
+        return clipped[0] <= clipped[2] && clipped[1] <= clipped[3] ? clipped : new int[] { 0, 0, -1, -1 };
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        if (a == null || a[0] > a[2]) {
+            return b;
+        }
+        if (b[0] > b[2]) {
+            return a;
+        }
+        return new int[] { Math.min(a[0], b[0]), Math.min(a[1], b[1]), Math.max(a[2], b[2]), Math.max(a[3], b[3]) };
+    }
+
+    private static boolean contains(int[] b, int x, int y) {
+        return x >= b[0] && x <= b[2] && y >= b[1] && y <= b[3];
+    }
+
+    private static int getIndex(int[] b, int x, int y) {
+        return (x - b[0]) * (b[3] - b[1] + 1) + y - b[1];
+    }
+}
@@ -0,0 +1,95 @@
+package model.world;
+
+/**
+ * The lighting of a world over the course of a day, for time of day
+ * experiments.
+ *
+ * A day lasts a number of rounds, and repeats for as long as the model runs.
+ * The natural light level and whether each group of lamps is on are each
+ * given as a list of phases, which divide the day in equal parts. The lists
+ * need not have the same length.
+ *
+ * Lamps are grouped by position: every group after the first is made of the
+ * lamps within a rectangle of the map, and the first group holds the lamps
+ * which are in none of the rectangles. A lamp within several rectangles
+ * belongs to the first of them.
+ *
+ * The light cast by each group of lamps is computed once (see
+ * {@link LampLayers}), so following the schedule costs nothing per cell: the
+ * light of a cell is the brightest of the natural light and the light of the
+ * groups of lamps which are on.
+ */
+public class LightingSchedule {
+    public final int dayLength;
+    private final double[] naturalLight;
+    private final boolean[][] lampsOn;
+    private final int[][] groupBounds;
+
+    /**
+     * Creates a schedule with groups of lamps: lampsOn has the phases of the
+     * lamps in no group, followed by those of each group in groupBounds, which
+     * has the bounds of each group as {minX, minY, maxX, maxY}, inclusive.
+     */
+    public LightingSchedule(int dayLength, double[] naturalLight, boolean[][] lampsOn, int[][] groupBounds) {
+        if (dayLength <= 0 || naturalLight.length == 0 || lampsOn.length == 0) {
+            throw new IllegalArgumentException("Lighting schedule needs a day length and at least one phase of each");
+        }
+        if (lampsOn.length != groupBounds.length + 1) {
+            throw new IllegalArgumentException(String.format(
+                    "Lighting schedule has %s groups of lamps but %s lamp schedules, it needs one more for the"
+                    + " lamps in no group", groupBounds.length, lampsOn.length));
+        }
+        this.dayLength = dayLength;
+        this.naturalLight = naturalLight.clone();
+        this.lampsOn = new boolean[lampsOn.length][];
+        for (int group = 0; group < lampsOn.length; group++) {
+            if (lampsOn[group].length == 0) {
+                throw new IllegalArgumentException("Lighting schedule needs at least one phase for every group of lamps");
+            }
+            this.lampsOn[group] = lampsOn[group].clone();
+        }
+        this.groupBounds = new int[groupBounds.length][];
+        for (int group = 0; group < groupBounds.length; group++) {
+            int[] bounds = groupBounds[group];
+            if (bounds.length != 4 || bounds[0] > bounds[2] || bounds[1] > bounds[3]) {
+                throw new IllegalArgumentException("Invalid bounds for a group of lamps, they must be minX,minY,maxX,maxY");
+            }
+            this.groupBounds[group] = bounds.clone();
+        }
+    }
+
+    /**
+     * Returns the natural light level at the specified time.
+     */
+    public double getNaturalLight(int time) {
+        return naturalLight[getPhase(time, naturalLight.length)];
+    }
+
+    /**
+     * Returns the number of groups of lamps, including the first one, of the
+     * lamps in no rectangle.
+     */
+    public int getGroupCount() {
+        return lampsOn.length;
+    }
+
+    /**
+     * Returns the bounds of the rectangle of the specified group, as {minX,
+     * minY, maxX, maxY}, inclusive. Group 0 has no rectangle.
+     */
+    public int[] getGroupBounds(int group) {
+        return groupBounds[group - 1].clone();
+    }
+
+    /**
+     * Returns true if the lamps of the specified group are on at the specified
+     * time.
+     */
+    public boolean areLampsOn(int group, int time) {
+        return lampsOn[group][getPhase(time, lampsOn[group].length)];
+    }
+
+    private int getPhase(int time, int phases) {
+        return (int) ((long) (time % dayLength) * phases / dayLength);
+    }
+}
@@ -0,0 +1,326 @@
+package model.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import model.action.Direction;
+import model.map.BinaryMap;
+import model.map.MapImage;
+import model.map.MapParser;
+import utils.Utils;
+
+/**
+ * The parts of a world which never change while a model runs: the type and
+ * light of every cell, and the movement and visibility information derived
+ * from them. It is immutable, so a single instance is shared by every model
+ * running on the same map, each with its own {@link WorldState}.
+ *
+ * Cells are identified by {@code x * yDimension + y}, as everywhere else.
+ * Per-cell information is kept in flat arrays and bitsets indexed by id or,
+ * for maps too large to hold in memory, read from a {@link TiledMap}.
+ */
+public final class StaticWorld {
+    private static Logger log = Utils.getConsoleLogger(StaticWorld.class);
+
+    /**
+     * The largest number of cells a map can have: cells are identified by int
+     * ids, and held in arrays indexed by them.
+     */
+    public static final int MAX_CELLS = Integer.MAX_VALUE - 8;
+
+    /**
+     * Maps which have already been loaded, by path, see {@link #load(File)}.
+     */
+    private static final ConcurrentHashMap<String, CachedMap> loaded = new ConcurrentHashMap<>();
+
+    /**
+     * A version of a map file, held softly so that maps which are no longer
+     * used can be collected when memory runs low. The map is loaded by the
+     * first caller to ask for it, and the others wait for it.
+     */
+    private static final class CachedMap {
+        final String version;
+        private SoftReference<StaticWorld> map = new SoftReference<>(null);
+
+        CachedMap(String version) {
+            this.version = version;
+        }
+
+        synchronized StaticWorld get(Supplier<StaticWorld> loader) {
+            StaticWorld world = map.get();
+            if (world == null) {
+                world = loader.get();
+                map = new SoftReference<>(world);
+            }
+            return world;
+        }
+    }
+
+    public final int xDimension, yDimension;
+    private final CellType[] types;
+    private final double[] light;
+    private final long[] walkable, viewObstructions;
+    private final byte[] walkableNeighbours;
+    private final int[] walkableCells;
+    private final TiledMap tiles;
+
+    /**
+     * Compiles the current state of the provided world. Later changes to the
+     * world are not reflected here.
+     */
+    public StaticWorld(World world) {
+        this(world.xDimension, world.yDimension, getTypes(world), getLight(world), null);
+    }
+
+    /**
+     * Creates a map from the type and light of every cell, by id. The masks
+     * of walkable neighbours (see {@link #getWalkableDirections(int)}) are
+     * derived from the types if they are null. The arrays are kept, they
+     * must not be changed afterwards.
+     */
+    public StaticWorld(int xDimension, int yDimension, CellType[] types, double[] light, byte[] walkableNeighbours) {
+        this.xDimension = xDimension;
+        this.yDimension = yDimension;
+        this.tiles = null;
+        int cells = xDimension * yDimension;
+        this.types = types;
+        this.light = light;
+        walkable = new long[(cells + 63) >> 6];
+        viewObstructions = new long[(cells + 63) >> 6];
+
+        int[] walkableIds = new int[cells];
+        int walkableCount = 0;
+        for (int id = 0; id < cells; id++) {
+            if (!types[id].obstructsMovement) {
+                walkable[id >> 6] |= 1L << id;
+                walkableIds[walkableCount++] = id;
+            }
+            if (types[id].obstructsView) {
+                viewObstructions[id >> 6] |= 1L << id;
+            }
+        }
+        walkableCells = Arrays.copyOf(walkableIds, walkableCount);
+        
+        if (walkableNeighbours == null) {
+            walkableNeighbours = new byte[cells];
+            for (int x = 0; x < xDimension; x++) {
+                for (int y = 0; y < yDimension; y++) {
+                    int mask = 0;
+                    for (Direction direction : Direction.values()) {
+                        if (withinBounds(x + direction.x, y + direction.y)
+                                && isWalkable(getId(x + direction.x, y + direction.y))) {
+                            mask |= direction.mask;
+                        }
+                    }
+                    walkableNeighbours[getId(x, y)] = (byte) mask;
+                }
+            }
+        }
+        this.walkableNeighbours = walkableNeighbours;
+    }
+    
+    /**
+     * Creates a map which reads its cells from the provided tiled map, as
+     * they are needed.
+     */
+    public StaticWorld(TiledMap tiles) {
+        this.xDimension = tiles.xDimension;
+        this.yDimension = tiles.yDimension;
+        this.tiles = tiles;
+        this.types = null;
+        this.light = null;
+        this.walkable = null;
+        this.viewObstructions = null;
+        this.walkableNeighbours = null;
+        this.walkableCells = null;
+    }
+    
+    private static CellType[] getTypes(World world) {
+        CellType[] types = new CellType[world.xDimension * world.yDimension];
+        for (int x = 0; x < world.xDimension; x++) {
+            for (int y = 0; y < world.yDimension; y++) {
+                types[x * world.yDimension + y] = world.grid[x][y].type;
+            }
+        }
+        return types;
+    }
+    
+    private static double[] getLight(World world) {
+        double[] light = new double[world.xDimension * world.yDimension];
+        for (int x = 0; x < world.xDimension; x++) {
+            for (int y = 0; y < world.yDimension; y++) {
+                light[x * world.yDimension + y] = world.grid[x][y].light;
+            }
+        }
+        return light;
+    }
+
+    /**
+     * Returns the compiled map in the specified file, which can be a .map, a
+     * .jpeg, a binary .bmap file (see {@link BinaryMap}) or a tiled .tmap
+     * file, which is read as needed (see {@link TiledMap}). Each file is only
+     * loaded once, and the same instance is returned to every caller until
+     * the file is modified. Binary maps are identified by the hash of their
+     * content instead, so they are only loaded again if the content changes.
+     * Concurrent callers asking for the same file wait for a single load.
+     *
+     * Only the latest version of each file is kept, and only for as long as
+     * memory allows: maps which no model uses any more are loaded again if
+     * memory ran low in the meantime. The file of a tiled map is closed once
+     * its map has been collected.
+     *
+     * Returns null if the file cannot be loaded.
+     */
+    public static StaticWorld load(File file) {
+        return load(file, MapImage.DEFAULT_SCALE, MapImage.DEFAULT_ROAD_THRESHOLD);
+    }
+
+    /**
+     * Same as {@link #load(File)}, but images are converted with the specified
+     * scale and road threshold (see {@link MapImage}). These are ignored for
+     * other formats.
+     */
+    public static StaticWorld load(File file, int imageScale, int roadThreshold) {
+        String key, version;
+        try {
+            key = file.getCanonicalPath();
+            version = file.getName().endsWith(".bmap") ? Long.toHexString(BinaryMap.readHash(file))
+                    : Long.toString(file.lastModified());
+            if (file.getName().endsWith(".jpeg")) {
+                key += "/" + imageScale + "/" + roadThreshold;
+            }
+        } catch (IOException e) {
+            log.severe("Could not read map file: " + file + " (" + e.getMessage() + ")");
+            return null;
+        }
+        // a new version of the file replaces the old one
+        CachedMap cached = loaded.compute(key,
+                (k, previous) -> previous != null && previous.version.equals(version) ? previous : new CachedMap(version));
+        return cached.get(() -> read(file, imageScale, roadThreshold));
+    }
+
+    private static StaticWorld read(File file, int imageScale, int roadThreshold) {
+        World world;
+        if (file.getName().endsWith(".tmap")) {
+            try {
+                return new StaticWorld(TiledMap.open(file, TiledMap.DEFAULT_RESIDENT_TILES));
+            } catch (IOException e) {
+                log.severe("Could not open tiled map: " + e.getMessage());
+                return null;
+            }
+        } else if (file.getName().endsWith(".bmap")) {
+            try {
+                return BinaryMap.read(file);
+            } catch (IOException e) {
+                log.severe("Could not load binary map: " + e.getMessage());
+                return null;
+            }
+        } else if (file.getName().endsWith(".map")) {
+            world = MapParser.parse(file);
+        } else if (file.getName().endsWith(".jpeg")) {
+            world = MapImage.loadWorldFromImage(file, imageScale, roadThreshold);
+        } else {
+            log.severe("Unknown map format: " + file);
+            return null;
+        }
+        return world == null ? null : new StaticWorld(world);
+    }
+
+    /**
+     * Returns true if the cells are read from a {@link TiledMap} as they are
+     * needed, rather than held in memory.
+     */
+    public boolean isTiled() {
+        return tiles != null;
+    }
+
+    /**
+     * Returns the id of the cell at the specified position.
+     */
+    public int getId(int x, int y) {
+        return x * yDimension + y;
+    }
+
+    public int getX(int id) {
+        return id / yDimension;
+    }
+
+    public int getY(int id) {
+        return id % yDimension;
+    }
+
+    /**
+     * Checks if the provided coordinates are within the bounds of the world.
+     */
+    public boolean withinBounds(int x, int y) {
+        return x < xDimension && x >= 0 && y < yDimension && y >= 0;
+    }
+
+    public CellType getType(int x, int y) {
+        return tiles == null ? types[getId(x, y)] : tiles.getType(x, y);
+    }
+
+    public double getLight(int x, int y) {
+        return tiles == null ? light[getId(x, y)] : tiles.getLight(x, y);
+    }
+
+    /**
+     * Returns the light value of every cell by id, or null if the map is
+     * tiled. The array must not be changed.
+     */
+    double[] getLight() {
+        return light;
+    }
+
+    public boolean isWalkable(int id) {
+        return tiles == null ? (walkable[id >> 6] & (1L << id)) != 0
+                : !tiles.getType(getX(id), getY(id)).obstructsMovement;
+    }
+
+    public boolean obstructsView(int id) {
+        return tiles == null ? (viewObstructions[id >> 6] & (1L << id)) != 0
+                : tiles.getType(getX(id), getY(id)).obstructsView;
+    }
+
+    /**
+     * Returns the directions in which the neighbours of the cell are walkable,
+     * as a mask of {@link Direction#mask} bits. Neighbours out of bounds are
+     * never walkable.
+     */
+    public int getWalkableDirections(int id) {
+        return tiles == null ? walkableNeighbours[id] : tiles.getWalkableDirections(getX(id), getY(id));
+    }
+
+    /**
+     * Returns the number of walkable cells.
+     */
+    public int getWalkableCount() {
+        return tiles == null ? walkableCells.length : tiles.getWalkableCount();
+    }
+
+    /**
+     * Returns the id of the walkable cell at the specified index, between 0
+     * and {@link #getWalkableCount()} - 1. Walkable cells are in id order.
+     */
+    public int getWalkableCell(int index) {
+        return tiles == null ? walkableCells[index] : tiles.getWalkableCell(index);
+    }
+
+    /**
+     * Computes the line of cells which connects the specified start and end
+     * points, passing the id of each cell to the callback, like
+     * {@link World#computeLine(int, int, int, int, java.util.function.Function)}.
+     */
+    public void computeLine(int startX, int startY, int endX, int endY, IntPredicate callback) {
+        if (!withinBounds(startX, startY) || !withinBounds(endX, endY)) {
+            return;
+        }
+        World.traceLine(startX, startY, endX, endY, yDimension, callback);
+    }
+}
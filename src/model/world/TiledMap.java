@@ -0,0 +1,261 @@
+package model.world;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The cells of a map stored in a file as square tiles, of which only the
+ * ones in use are kept in memory, for maps too large to hold whole. A
+ * {@link StaticWorld} opened on a tiled map reads its cells from here.
+ * 
+ * The file is made up of a header (the magic number, the version, the
+ * dimensions, the size of the tiles and the number of walkable cells), the
+ * tiles, and the ids of the walkable cells in id order. Tiles are in order
+ * of {@code tileX * tilesY + tileY}, and each holds the types, the masks of
+ * walkable neighbours and the light values of its cells, by
+ * {@code (x % tileSize) * tileSize + y % tileSize}. Tiles on the edges are
+ * padded to full size.
+ * 
+ * Tiles are paged in from the file when a cell in them is first read, through
+ * a single buffer, and evicted with the CLOCK policy when too many are resident: every read marks
+ * its tile, and the tile evicted is the first unmarked one found by a hand
+ * going round the resident tiles, unmarking them as it goes. Reading a
+ * resident tile takes no locks, so a map can be read by many threads and
+ * models at once. The list of walkable cells is mapped but never copied.
+ * 
+ * Cell ids are ints, as everywhere else, so maps are still limited to
+ * {@link StaticWorld#MAX_CELLS} cells, and files with more are rejected.
+ */
+public final class TiledMap {
+    private static final int MAGIC = 0x544d4150, VERSION = 1;
+    private static final int HEADER_SIZE = 4 * 6;
+    private static final int WALKABLE_CHUNK_BITS = 28;
+    private static final int MAX_TILE_SIZE = 4096;
+    
+    public static final int DEFAULT_TILE_SIZE = 64;
+    public static final int DEFAULT_RESIDENT_TILES = 4096;
+
+    public final int xDimension, yDimension, tileSize;
+    private final int tilesY, tileBytes, walkableCount;
+    private final FileChannel channel;
+    private final IntBuffer[] walkableCells;
+    
+    private final AtomicReferenceArray<Tile> resident;
+    // the tiles going round the clock, the hand and the buffer tiles are read into, only touched when paging in
+    private final int[] clock;
+    private final ByteBuffer tileBuffer;
+    private int clockSize = 0, hand = 0;
+    
+    private static final class Tile {
+        final byte[] types, walkableNeighbours;
+        final double[] light;
+        boolean referenced = true;
+        
+        Tile(int cells) {
+            types = new byte[cells];
+            walkableNeighbours = new byte[cells];
+            light = new double[cells];
+        }
+    }
+
+    private TiledMap(FileChannel channel, int xDimension, int yDimension, int tileSize, int walkableCount,
+            int residentTiles) throws IOException {
+        this.channel = channel;
+        this.xDimension = xDimension;
+        this.yDimension = yDimension;
+        this.tileSize = tileSize;
+        this.walkableCount = walkableCount;
+        this.tilesY = (yDimension + tileSize - 1) / tileSize;
+        int tiles = ((xDimension + tileSize - 1) / tileSize) * tilesY;
+        this.tileBytes = tileSize * tileSize * 10;
+        this.tileBuffer = ByteBuffer.allocateDirect(tileBytes);
+        this.resident = new AtomicReferenceArray<>(tiles);
+        this.clock = new int[Math.max(1, Math.min(residentTiles, tiles))];
+        
+        long walkableOffset = HEADER_SIZE + (long) tiles * tileBytes;
+        long expected = walkableOffset + walkableCount * 4L;
+        if (channel.size() != expected) {
+            throw new IOException(String.format("Tiled map should be %s bytes long, but is %s", expected, channel.size()));
+        }
+        walkableCells = new IntBuffer[(walkableCount >> WALKABLE_CHUNK_BITS) + 1];
+        for (int chunk = 0; chunk < walkableCells.length; chunk++) {
+            long first = (long) chunk << WALKABLE_CHUNK_BITS;
+            long count = Math.min(1L << WALKABLE_CHUNK_BITS, walkableCount - first);
+            walkableCells[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, walkableOffset + first * 4, count * 4)
+                    .asIntBuffer();
+        }
+    }
+
+    /**
+     * Opens the tiled map in the specified file, keeping at most the
+     * specified number of tiles in memory at once. The file is kept open for
+     * as long as the map is in use.
+     */
+    public static TiledMap open(File file, int residentTiles) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER_SIZE, channel.size()));
+            if (header.limit() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+                throw new IOException("Not a tiled map file: " + file);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported tiled map version " + header.getInt(4) + " in " + file);
+            }
+            int xDimension = header.getInt(8), yDimension = header.getInt(12), tileSize = header.getInt(16);
+            int walkableCount = header.getInt(20);
+            long cells = (long) xDimension * yDimension;
+            if (xDimension <= 0 || yDimension <= 0 || cells > StaticWorld.MAX_CELLS) {
+                throw new IOException(String.format("Invalid dimensions %sx%s in tiled map %s", xDimension,
+                        yDimension, file));
+            }
+            if (tileSize <= 0 || tileSize > MAX_TILE_SIZE || walkableCount < 0 || walkableCount > cells) {
+                throw new IOException(String.format("Invalid tile size %s or walkable count %s in tiled map %s",
+                        tileSize, walkableCount, file));
+            }
+            return new TiledMap(channel, xDimension, yDimension, tileSize, walkableCount, residentTiles);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the provided map to the specified file as a tiled map, with
+     * tiles of the specified size.
+     */
+    public static void write(StaticWorld map, File file, int tileSize) throws IOException {
+        if (tileSize <= 0 || tileSize > MAX_TILE_SIZE) {
+            throw new IllegalArgumentException("Tile size must be between 1 and " + MAX_TILE_SIZE);
+        }
+        int tilesX = (map.xDimension + tileSize - 1) / tileSize, tilesY = (map.yDimension + tileSize - 1) / tileSize;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(map.xDimension);
+            out.writeInt(map.yDimension);
+            out.writeInt(tileSize);
+            out.writeInt(map.getWalkableCount());
+            for (int tileX = 0; tileX < tilesX; tileX++) {
+                for (int tileY = 0; tileY < tilesY; tileY++) {
+                    Tile tile = new Tile(tileSize * tileSize);
+                    for (int i = 0; i < tileSize; i++) {
+                        for (int j = 0; j < tileSize; j++) {
+                            int x = tileX * tileSize + i, y = tileY * tileSize + j;
+                            if (map.withinBounds(x, y)) {
+                                tile.types[i * tileSize + j] = (byte) map.getType(x, y).ordinal();
+                                tile.walkableNeighbours[i * tileSize + j] = (byte) map.getWalkableDirections(map.getId(x, y));
+                                tile.light[i * tileSize + j] = map.getLight(x, y);
+                            }
+                        }
+                    }
+                    out.write(tile.types);
+                    out.write(tile.walkableNeighbours);
+                    for (double light : tile.light) {
+                        out.writeDouble(light);
+                    }
+                }
+            }
+            for (int i = 0; i < map.getWalkableCount(); i++) {
+                out.writeInt(map.getWalkableCell(i));
+            }
+        }
+    }
+
+    public CellType getType(int x, int y) {
+        return CellType.types[getTile(x, y).types[getLocal(x, y)]];
+    }
+
+    public double getLight(int x, int y) {
+        return getTile(x, y).light[getLocal(x, y)];
+    }
+
+    public int getWalkableDirections(int x, int y) {
+        return getTile(x, y).walkableNeighbours[getLocal(x, y)];
+    }
+
+    public int getWalkableCount() {
+        return walkableCount;
+    }
+
+    public int getWalkableCell(int index) {
+        return walkableCells[index >>> WALKABLE_CHUNK_BITS].get(index & ((1 << WALKABLE_CHUNK_BITS) - 1));
+    }
+    
+    private int getLocal(int x, int y) {
+        return (x % tileSize) * tileSize + y % tileSize;
+    }
+
+    private Tile getTile(int x, int y) {
+        int index = (x / tileSize) * tilesY + y / tileSize;
+        Tile tile = resident.get(index);
+        if (tile == null) {
+            tile = pageIn(index);
+        }
+        tile.referenced = true;
+        return tile;
+    }
+
+    /**
+     * Reads the tile with the specified index from the file, evicting another
+     * one if necessary. Tiles evicted while some thread is still reading them
+     * stay valid, they are just no longer kept.
+     */
+    private synchronized Tile pageIn(int index) {
+        Tile tile = resident.get(index);
+        if (tile != null) {
+            return tile;
+        }
+        tile = new Tile(tileSize * tileSize);
+        try {
+            long position = HEADER_SIZE + (long) index * tileBytes;
+            tileBuffer.clear();
+            while (tileBuffer.hasRemaining()) {
+                if (channel.read(tileBuffer, position + tileBuffer.position()) < 0) {
+                    throw new IOException("Tiled map ends in the middle of tile " + index);
+                }
+            }
+            tileBuffer.flip();
+            tileBuffer.get(tile.types);
+            tileBuffer.get(tile.walkableNeighbours);
+            tileBuffer.asDoubleBuffer().get(tile.light);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read tile " + index, e);
+        }
+        
+        int slot;
+        if (clockSize < clock.length) {
+            slot = clockSize++;
+        } else {
+            slot = evict();
+        }
+        clock[slot] = index;
+        resident.set(index, tile);
+        return tile;
+    }
+
+    /**
+     * Evicts a tile and returns its slot in the clock.
+     */
+    private int evict() {
+        while (true) {
+            int slot = hand;
+            hand = (hand + 1) % clock.length;
+            Tile tile = resident.get(clock[slot]);
+            if (tile.referenced) {
+                tile.referenced = false;
+            } else {
+                resident.set(clock[slot], null);
+                return slot;
+            }
+        }
+    }
+}
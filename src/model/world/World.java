@@ -1,24 +1,24 @@
 package model.world;
 
 import java.util.function.Function;
+import java.util.function.IntPredicate;
 
 /**
  * Fundamental representation of a world, consisting of a grid of cells.
+ * 
+ * This is the editable form of a map, as produced by the map loaders and
+ * changed by the map tool. Models run on a compiled {@link StaticWorld}
+ * instead, which is shared between them, with their own {@link WorldState}.
  */
 public class World {
 
     public Cell[][] grid;
-    public int time, xDimension, yDimension;
+    public int xDimension, yDimension;
 
     public World(int xDimension, int yDimension) {
         this.xDimension = xDimension;
         this.yDimension = yDimension;
         this.grid = new Cell[xDimension][yDimension];
-        this.time = 0;
-    }
-
-    public void stateTick() {
-        this.time++;
     }
 
     /**
@@ -42,6 +42,17 @@ public class World {
         if (!withinBounds(startX, startY) || !withinBounds(endX, endY)) {
             return;
         }
+        traceLine(startX, startY, endX, endY, yDimension,
+                id -> callback.apply(grid[id / yDimension][id % yDimension]));
+    }
+
+    /**
+     * Same as {@link #computeLine(int, int, int, int, Function)}, but passes
+     * the id of each cell ({@code x * yDimension + y}) to the callback instead
+     * of the cell itself, so that it works on any representation of a world.
+     * Both ends of the line must be within bounds.
+     */
+    public static void traceLine(int startX, int startY, int endX, int endY, int yDimension, IntPredicate callback) {
         int x = startX;
         int y = startY;
 
@@ -64,7 +75,7 @@ public class World {
         int numerator = longest >> 1;
 
         for (int i = 0; i <= longest; i++) {
-            if (!callback.apply(grid[x][y])) {
+            if (!callback.test(x * yDimension + y)) {
                 return;
             }
             numerator += shortest;
@@ -0,0 +1,378 @@
+package model.world;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import model.agent.Agent;
+import utils.GridKernels;
+
+/**
+ * The parts of a world which change as a model runs: who occupies each cell,
+ * how many crimes have been committed in each cell, and the time. Every model
+ * has its own state, on top of a {@link StaticWorld} which may be shared with
+ * other models.
+ *
+ * The occupancy is also kept in a {@link CellIndex} and in {@link CellMasks},
+ * so all changes in occupancy must go through
+ * {@link #setOccupant(int, int, Agent)}.
+ *
+ * Per-cell state is kept in pages of consecutive ids. A map held in memory
+ * has a single page covering every cell. A tiled map may be far too large
+ * for that, so it has pages of 2^{@link #PAGE_BITS} cells, created when a
+ * cell in them is first written: only the parts of the map the agents have
+ * been to take memory.
+ */
+public class WorldState {
+    public final StaticWorld map;
+    public final int xDimension, yDimension;
+    public int time = 0;
+
+    static final int PAGE_BITS = 12;
+    private final int cells, pageBits, pageMask;
+    private final Agent[][] occupants;
+    private final int[][] crimeCount;
+    final CellIndex cellIndex;
+    final CellMasks cellMasks;
+
+    /**
+     * The lighting at the current time, see {@link #getLight(int, int)}.
+     * Without a schedule, the lamps are always on and there is no natural
+     * light. The layers are only needed if the schedule has groups of lamps,
+     * and lampsOn then says which groups are on.
+     */
+    private LightingSchedule schedule;
+    private LampLayers lampLayers;
+    private boolean[] lampsOn;
+    private double naturalLight = 0, lampLight = 1;
+    // the cells whose light changed with the last tick, {minX, minY, maxX, maxY}, or null
+    private int[] lightChange;
+
+    /**
+     * Creates an empty state for the provided map: no occupants, no crimes
+     * and time 0.
+     */
+    public WorldState(StaticWorld map) {
+        this.map = map;
+        this.xDimension = map.xDimension;
+        this.yDimension = map.yDimension;
+        this.cells = xDimension * yDimension;
+        this.pageBits = getPageBits(map);
+        this.pageMask = (1 << pageBits) - 1;
+        this.occupants = new Agent[getPageCount(map)][];
+        this.crimeCount = new int[occupants.length][];
+        if (!map.isTiled()) {
+            occupants[0] = new Agent[cells];
+            crimeCount[0] = new int[cells];
+        }
+        this.cellMasks = new CellMasks(map);
+        this.cellIndex = new CellIndex(map, cellMasks);
+    }
+
+    /**
+     * Returns the number of bits of the ids of the cells in each page of the
+     * per-cell state of the map, see {@link WorldState}.
+     */
+    static int getPageBits(StaticWorld map) {
+        return map.isTiled() ? PAGE_BITS : 31;
+    }
+
+    static int getPageCount(StaticWorld map) {
+        return (int) ((((long) map.xDimension * map.yDimension - 1) >>> getPageBits(map)) + 1);
+    }
+
+    private int getPageSize(int page) {
+        return (int) Math.min(1L << pageBits, cells - ((long) page << pageBits));
+    }
+
+    public void stateTick() {
+        this.time++;
+        lightChange = updateLighting();
+    }
+
+    /**
+     * Returns the bounds of the cells whose light changed with the last tick,
+     * as {minX, minY, maxX, maxY}, inclusive, or null if the light stayed the
+     * same. The light only changes when a {@link LightingSchedule} moves to
+     * a new phase.
+     */
+    public int[] getLightChange() {
+        return lightChange;
+    }
+
+    /**
+     * Sets the schedule the lighting follows from now on, or removes it if
+     * it is null. The light of each group of lamps in the schedule is
+     * computed here, once.
+     */
+    public void setLightingSchedule(LightingSchedule schedule) {
+        this.schedule = schedule;
+        boolean grouped = schedule != null && schedule.getGroupCount() > 1;
+        lampLayers = grouped ? new LampLayers(map, schedule) : null;
+        lampsOn = grouped ? new boolean[schedule.getGroupCount()] : null;
+        naturalLight = 0;
+        lampLight = 1;
+        updateLighting();
+    }
+
+    /**
+     * Follows the schedule to the current time, and returns the bounds of the
+     * cells whose light changed, see {@link #getLightChange()}.
+     */
+    private int[] updateLighting() {
+        if (schedule == null) {
+            return null;
+        }
+        double previousNaturalLight = naturalLight, previousLampLight = lampLight;
+        naturalLight = schedule.getNaturalLight(time);
+        lampLight = schedule.areLampsOn(0, time) ? 1 : 0;
+        int[] change = null;
+        if (naturalLight != previousNaturalLight || lampLight != previousLampLight) {
+            change = new int[] { 0, 0, xDimension - 1, yDimension - 1 };
+        }
+        if (lampsOn != null) {
+            for (int group = 0; group < lampsOn.length; group++) {
+                boolean on = schedule.areLampsOn(group, time);
+                if (on != lampsOn[group]) {
+                    change = union(change, lampLayers.getBounds(group));
+                }
+                lampsOn[group] = on;
+            }
+        }
+        return change;
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        if (b[0] > b[2] || b[1] > b[3]) {
+            return a;
+        }
+        if (a == null) {
+            return b;
+        }
+        return new int[] { Math.min(a[0], b[0]), Math.min(a[1], b[1]), Math.max(a[2], b[2]), Math.max(a[3], b[3]) };
+    }
+
+    /**
+     * Returns the light value of the specified cell at the current time,
+     * taking into account both the lamps and natural light. The coordinates
+     * must be within the bounds of the world.
+     */
+    public double getLight(int x, int y) {
+        if (lampLayers != null) {
+            return Math.max(naturalLight, lampLayers.getLight(x, y, lampsOn));
+        }
+        return Math.max(naturalLight, lampLight * map.getLight(x, y));
+    }
+
+    /**
+     * Writes the light value of every cell at the current time into the
+     * provided array, by id, like {@link #getLight(int, int)}.
+     */
+    public void getLight(double[] into) {
+        double[] light = map.getLight();
+        if (light != null) {
+            GridKernels.blendLight(light, lampLight, naturalLight, into);
+            if (lampLayers != null) {
+                lampLayers.blendPatch(into, lampsOn, naturalLight);
+            }
+        } else {
+            for (int id = 0; id < into.length; id++) {
+                into[id] = getLight(map.getX(id), map.getY(id));
+            }
+        }
+    }
+
+    /**
+     * Checks if the provided coordinates are within the bounds of the world.
+     */
+    public boolean withinBounds(int x, int y) {
+        return map.withinBounds(x, y);
+    }
+
+    /**
+     * Returns the occupant of the specified cell, or null if it is not
+     * occupied. The coordinates must be within the bounds of the world.
+     */
+    public Agent getOccupant(int x, int y) {
+        int id = map.getId(x, y);
+        Agent[] page = occupants[id >>> pageBits];
+        return page == null ? null : page[id & pageMask];
+    }
+
+    /**
+     * Sets the occupant of the specified cell, or clears it if the occupant is
+     * null. This does not update the agent's position.
+     */
+    public void setOccupant(int x, int y, Agent occupant) {
+        int id = map.getId(x, y);
+        Agent[] page = occupants[id >>> pageBits];
+        if (page == null) {
+            if (occupant == null) {
+                return;
+            }
+            page = occupants[id >>> pageBits] = new Agent[getPageSize(id >>> pageBits)];
+        }
+        page[id & pageMask] = occupant;
+        // the index is only told about actual changes, see CellIndex.setFree
+        if (cellMasks.isOccupied(id) != (occupant != null)) {
+            cellMasks.setOccupied(id, occupant != null);
+            if (map.isWalkable(id)) {
+                cellIndex.setFree(x, y, occupant == null);
+            }
+        }
+    }
+
+    public int getCrimeCount(int x, int y) {
+        return getCrimeCount(map.getId(x, y));
+    }
+
+    /**
+     * Returns the crime count of the cell with the specified id.
+     */
+    public int getCrimeCount(int id) {
+        int[] page = crimeCount[id >>> pageBits];
+        return page == null ? 0 : page[id & pageMask];
+    }
+
+    public void setCrimeCount(int x, int y, int count) {
+        setCrimeCount(map.getId(x, y), count);
+    }
+
+    private void setCrimeCount(int id, int count) {
+        int[] page = crimeCount[id >>> pageBits];
+        if (page == null) {
+            if (count == 0) {
+                return;
+            }
+            page = crimeCount[id >>> pageBits] = new int[getPageSize(id >>> pageBits)];
+        }
+        page[id & pageMask] = count;
+    }
+
+    /**
+     * Returns the crime count of every cell, by id. The array must not be
+     * changed, crimes are recorded with {@link #addCrime(int, int)}.
+     *
+     * For a map held in memory, this is the array the counts are kept in.
+     * For a tiled map, the counts are copied into a new array on every call,
+     * so prefer {@link #getCrimeCount(int)} for anything but whole-map passes.
+     */
+    public int[] getCrimeCounts() {
+        if (!map.isTiled()) {
+            return crimeCount[0];
+        }
+        int[] counts = new int[cells];
+        for (int page = 0; page < crimeCount.length; page++) {
+            if (crimeCount[page] != null) {
+                System.arraycopy(crimeCount[page], 0, counts, page << pageBits, crimeCount[page].length);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Sets the crime count of every cell from the provided counts, by id.
+     */
+    public void setCrimeCounts(int[] counts) {
+        for (int page = 0; page < crimeCount.length; page++) {
+            int start = page << pageBits, size = getPageSize(page);
+            // pages are only left out of tiled maps
+            boolean empty = map.isTiled();
+            for (int i = start; i < start + size && empty; i++) {
+                empty = counts[i] == 0;
+            }
+            if (empty) {
+                crimeCount[page] = null;
+            } else {
+                if (crimeCount[page] == null) {
+                    crimeCount[page] = new int[size];
+                }
+                System.arraycopy(counts, start, crimeCount[page], 0, size);
+            }
+        }
+    }
+
+    /**
+     * Records a crime in the specified cell and returns the new crime count
+     * of the cell.
+     */
+    public int addCrime(int x, int y) {
+        int id = map.getId(x, y);
+        int count = getCrimeCount(id) + 1;
+        setCrimeCount(id, count);
+        return count;
+    }
+
+    /**
+     * Clears the crime counts and sets the time back to 0. The occupants are
+     * left as they are.
+     */
+    public void restart() {
+        if (map.isTiled()) {
+            Arrays.fill(crimeCount, null);
+        } else {
+            Arrays.fill(crimeCount[0], 0);
+        }
+        time = 0;
+        updateLighting();
+    }
+
+    /**
+     * Writes the time, the crime counts and the order of the free cells, if
+     * the index keeps one (see {@link CellIndex}), or -1 instead. The
+     * occupants are not written, they are restored along with the agents.
+     * Crime counts are written sparsely, since most cells never see a crime.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(time);
+        int crimeCells = 0;
+        for (int[] page : crimeCount) {
+            for (int i = 0; page != null && i < page.length; i++) {
+                if (page[i] != 0) {
+                    crimeCells++;
+                }
+            }
+        }
+        out.writeInt(crimeCells);
+        for (int page = 0; page < crimeCount.length; page++) {
+            for (int i = 0; crimeCount[page] != null && i < crimeCount[page].length; i++) {
+                if (crimeCount[page][i] != 0) {
+                    out.writeInt((page << pageBits) + i);
+                    out.writeInt(crimeCount[page][i]);
+                }
+            }
+        }
+        if (cellIndex.hasFreeOrder()) {
+            out.writeInt(cellIndex.getFreeCount());
+            for (int position = 0; position < cellIndex.getFreeCount(); position++) {
+                out.writeInt(cellIndex.getFree(position));
+            }
+        } else {
+            out.writeInt(-1);
+        }
+    }
+
+    /**
+     * Reads a state written by {@link #write(DataOutput)}. The occupants must
+     * have been restored first, so that the same cells are free as when the
+     * state was written.
+     */
+    public void read(DataInput in) throws IOException {
+        time = in.readInt();
+        updateLighting();
+        int crimeCells = in.readInt();
+        for (int i = 0; i < crimeCells; i++) {
+            int id = in.readInt();
+            setCrimeCount(id, in.readInt());
+        }
+        int freeCount = in.readInt();
+        if (freeCount >= 0) {
+            int[] free = new int[freeCount];
+            for (int position = 0; position < free.length; position++) {
+                free[position] = in.readInt();
+            }
+            cellIndex.setFreeOrder(free);
+        }
+    }
+}
@@ -3,9 +3,11 @@ package model.world;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
 
-import model.Model;
+import model.action.Direction;
 import model.agent.Agent;
+import model.random.RandomStream;
 import utils.Utils;
 
 /**
@@ -16,17 +18,30 @@ import utils.Utils;
  *
  */
 public class WorldWrapper {
-    private World world;
+    private WorldState world;
+    private StaticWorld map;
+    private CellIndex cellIndex;
+    private CellMasks cellMasks;
 
-    public WorldWrapper(World world) {
+    public WorldWrapper(WorldState world) {
         this.world = world;
+        this.map = world.map;
+        this.cellIndex = world.cellIndex;
+        this.cellMasks = world.cellMasks;
     }
 
     /**
      * Checks if the provided coordinates are within the bounds of the world.
      */
     public boolean withinBounds(int x, int y) {
-        return world.withinBounds(x, y);
+        return map.withinBounds(x, y);
+    }
+
+    /**
+     * Returns the id of the cell at the specified position.
+     */
+    public int getId(int x, int y) {
+        return map.getId(x, y);
     }
 
     /**
@@ -41,7 +56,7 @@ public class WorldWrapper {
      * Also returns true if the coordinates provided are out of bounds.
      */
     public boolean isMovementObstruction(int x, int y) {
-        return !world.withinBounds(x, y) || this.world.grid[x][y].type.obstructsMovement;
+        return !map.withinBounds(x, y) || !map.isWalkable(map.getId(x, y));
     }
 
     /**
@@ -54,7 +69,7 @@ public class WorldWrapper {
      * Also returns true if the coordinates provided are out of bounds.
      */
     public boolean isViewObstruction(int x, int y) {
-        return !world.withinBounds(x, y) || this.world.grid[x][y].type.obstructsView;
+        return !map.withinBounds(x, y) || map.obstructsView(map.getId(x, y));
     }
 
     /**
@@ -65,7 +80,7 @@ public class WorldWrapper {
      * Returns false if the coordinates provided are out of bounds.
      */
     public boolean isOccupied(int x, int y) {
-        return world.withinBounds(x, y) && this.world.grid[x][y].occupant != null;
+        return map.withinBounds(x, y) && cellMasks.isOccupied(map.getId(x, y));
     }
 
     /**
@@ -77,7 +92,29 @@ public class WorldWrapper {
      * false.
      */
     public boolean isFree(int x, int y) {
-        return world.withinBounds(x, y) && !isMovementObstruction(x, y) && !isOccupied(x, y);
+        return map.withinBounds(x, y) && cellMasks.isFree(map.getId(x, y));
+    }
+    
+    /**
+     * Returns the directions in which an agent at the specified position could
+     * step if it were alone in the world, as a mask of {@link Direction#mask}
+     * bits. In other words, the neighbours which do not obstruct movement.
+     * 
+     * The coordinates must be within the bounds of the world.
+     */
+    public int getWalkableDirections(int x, int y) {
+        return map.getWalkableDirections(map.getId(x, y));
+    }
+    
+    /**
+     * Returns the directions in which an agent at the specified position can
+     * step right now, as a mask of {@link Direction#mask} bits. In other words,
+     * the neighbours which are free (see {@link #isFree(int, int)}).
+     * 
+     * The coordinates must be within the bounds of the world.
+     */
+    public int getFreeDirections(int x, int y) {
+        return cellMasks.getFreeDirections(map.getId(x, y));
     }
 
     /**
@@ -86,37 +123,93 @@ public class WorldWrapper {
      * of the world, this returns 0.
      */
     public double getLight(int x, int y) {
-        return world.withinBounds(x, y) ? this.world.grid[x][y].light : 0;
+        return map.withinBounds(x, y) ? world.getLight(x, y) : 0;
+    }
+
+    /**
+     * Sets the occupant of the specified cell, or clears it if the occupant is
+     * null. All changes in occupancy must go through here (or through
+     * {@link WorldState#setOccupant(int, int, Agent)}) so that the cell index
+     * and masks are kept up to date. This does not update the agent's position.
+     */
+    public void setOccupant(int x, int y, Agent occupant) {
+        world.setOccupant(x, y, occupant);
+    }
+
+    /**
+     * Returns the id of a random cell which does not obstruct movement, or -1
+     * if there are no such cells. This takes constant time.
+     */
+    public int getRandomWalkableCell(RandomStream random) {
+        return cellIndex.getRandomWalkable(random);
+    }
+
+    /**
+     * Returns the id of a random cell which is free to be occupied (see
+     * {@link #isFree(int, int)}), or -1 if every cell is either obstructed or
+     * occupied. This takes constant time.
+     */
+    public int getRandomFreeCell(RandomStream random) {
+        return cellIndex.getRandomFree(random);
+    }
+
+    /**
+     * Returns the x coordinate of the cell with the specified id.
+     */
+    public int getX(int id) {
+        return map.getX(id);
+    }
+
+    /**
+     * Returns the y coordinate of the cell with the specified id.
+     */
+    public int getY(int id) {
+        return map.getY(id);
     }
 
     /**
-     * Returns a random cell in the grid which satisfies the specified condition
-     * (the condition returns true).
+     * Returns the id of a random cell in the grid which satisfies the specified
+     * condition (the condition returns true for its id), or -1 if no cell does.
      * 
-     * XXX: if the condition is unsatisfiable, this blocks forever :´(
+     * Cells are sampled at random until one satisfies the condition. If that
+     * takes too many attempts, the whole grid is searched instead, and a random
+     * match is picked from it. If the condition is known in advance, prefer
+     * {@link #getRandomWalkableCell(RandomStream)} or {@link #getRandomFreeCell(RandomStream)}.
      */
-    public Cell getRandomCell(Function<Cell, Boolean> condition) {
-        Cell cell;
-        do {
-            cell = world.grid[Model.rand.nextInt(world.xDimension)][Model.rand.nextInt(world.yDimension)];
-        } while (!condition.apply(cell));
-        return cell;
+    public int getRandomCell(IntPredicate condition, RandomStream random) {
+        int cells = map.xDimension * map.yDimension;
+        int id;
+        for (int attempt = 0; attempt < cells; attempt++) {
+            id = map.getId(random.nextInt(map.xDimension), random.nextInt(map.yDimension));
+            if (condition.test(id)) {
+                return id;
+            }
+        }
+
+        int[] matches = new int[cells];
+        int matchCount = 0;
+        for (id = 0; id < cells; id++) {
+            if (condition.test(id)) {
+                matches[matchCount++] = id;
+            }
+        }
+        return matchCount == 0 ? -1 : matches[random.nextInt(matchCount)];
     }
 
     /**
-     * Creates a list of all cells in a straight line from position [fromX, fromY] to position
-     * [toX, toY], taking into account the specified range and visual obstructions along
+     * Creates a list of the ids of all cells in a straight line from position [fromX, fromY] to
+     * position [toX, toY], taking into account the specified range and visual obstructions along
      * the line of sight.
      */
-    public List<Cell> look(int fromX, int fromY, int toX, int toY, double range) {
+    public List<Integer> look(int fromX, int fromY, int toX, int toY, double range) {
         // TODO this can be optimised
-        LinkedList<Cell> cells = new LinkedList<>();
-        world.computeLine(fromX, fromY, toX, toY, cell -> {
-            if (Utils.getDistance(cell.x - fromX, cell.y - fromY) > range) {
+        LinkedList<Integer> cells = new LinkedList<>();
+        map.computeLine(fromX, fromY, toX, toY, id -> {
+            if (Utils.getDistance(map.getX(id) - fromX, map.getY(id) - fromY) > range) {
                 return false;
             }
-            cells.add(cell);
-            return !cell.type.obstructsView;
+            cells.add(id);
+            return !map.obstructsView(id);
         });
         return cells;
     }
@@ -126,60 +219,24 @@ public class WorldWrapper {
      * account the specified range and visual obstructions along the line of sight.
      */
     public boolean isVisible(int fromX, int fromY, int toX, int toY, double range) {
-        if (range < Utils.getDistance(toX - fromX, toY - fromY)) {
-            return false;
-        }
-        // dirty hack
-        class BooleanValue {
-            public boolean value = false;
-        }
-        BooleanValue visible = new BooleanValue();
-        world.computeLine(fromX, fromY, toX, toY, cell -> {
-            visible.value = cell.x == toX && cell.y == toY;
-            return !cell.type.obstructsView;
-        });
-        return visible.value;
+        return new AgentScan(world).isVisible(fromX, fromY, toX, toY, range);
     }
 
     /**
      * Returns a list of agents within the provided range around the provided position, in order of proximity.
      * The filter function is executed for each agent found, and the agent is only added to the list if it
-     * returns true. 
+     * returns true. Queries which run often should use an {@link AgentScan} of their own instead.
      */
     public List<Agent> getAgentsAround(int x, int y, double range, Function<Agent, Boolean> filter) {
-        LinkedList<Agent> agents = new LinkedList<Agent>();
-        int visionRadius = (int) Math.floor(range);
-        int limit = 2 * visionRadius + 1;
-        Agent cellAgent;
-
-        // describe a spiral around the specified position, so that the list we are building is naturally sorted by distance
-        int currentX = x, currentY = y, deltaX = 1, deltaY = 0, runLength = 1, swap;
-        while (deltaX == 1 || runLength < limit) {
-            for (int i = 0; i < runLength; i++) {
-                currentX += deltaX;
-                currentY += deltaY;
-                
-                if (withinBounds(currentX, currentY)) {
-                    cellAgent = world.grid[currentX][currentY].occupant;
-                    if (cellAgent != null 
-                            && isVisible(x, y, cellAgent.x, cellAgent.y, range)
-                            && filter.apply(cellAgent)) {
-                        agents.add(cellAgent);
-                    }
-                }
-            }
-            
-            // increment run length every 2 runs
-            if (deltaX == 0)
-                runLength++;
-            
-            // 90° clockwise turn
-            swap = deltaY;
-            deltaY = deltaX;
-            deltaX = -swap;
-        }
-        
-        return agents;
+        return new AgentScan(world).collect(x, y, range, filter, new LinkedList<Agent>());
+    }
+
+    /**
+     * Creates a scan for the agents around positions in this world, which can
+     * be reused for any number of queries, one at a time.
+     */
+    public AgentScan createAgentScan() {
+        return new AgentScan(world);
     }
 
     /**
@@ -187,6 +244,6 @@ public class WorldWrapper {
      * or the cell coordinates are invalid.
      */
     public Agent getOccupant(int x, int y) {
-        return withinBounds(x, y) ? world.grid[x][y].occupant : null;
+        return withinBounds(x, y) ? world.getOccupant(x, y) : null;
     }
 }
@@ -0,0 +1,106 @@
+package utils;
+
+/**
+ * Passes over whole grids of primitive values, such as the crime counts or the
+ * light of every cell, by id.
+ *
+ * If the incubating Vector API is available, that is if the JVM was started
+ * with --add-modules jdk.incubator.vector, and the hardware has vectors of at
+ * least two doubles, the passes are done with SIMD instructions by
+ * {@link VectorKernels}. Otherwise they fall back to plain loops. Both give
+ * exactly the same results: passes which add up doubles, such as
+ * {@link #totalVariation(int[], long, int[], long)}, are always done with
+ * plain loops, since adding the values in a different order would change the
+ * rounding of the result.
+ */
+public final class GridKernels {
+    /**
+     * True if the passes are vectorised.
+     */
+    public static final boolean VECTORISED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && VectorKernels.SUPPORTED;
+
+    private GridKernels() {}
+
+    /**
+     * Returns the sum of the values.
+     */
+    public static long sum(int[] values) {
+        return VECTORISED ? VectorKernels.sum(values) : scalarSum(values);
+    }
+
+    /**
+     * Returns the largest value, or 0 if there are none or they are all
+     * negative.
+     */
+    public static int max(int[] values) {
+        return VECTORISED ? VectorKernels.max(values) : scalarMax(values);
+    }
+
+    /**
+     * Returns the total variation distance between the distributions given by
+     * two sets of counts and their totals, which must be positive: half the sum
+     * of the absolute differences of the normalised counts. This pass is never
+     * vectorised, so that the result does not depend on the JVM options.
+     */
+    public static double totalVariation(int[] a, long totalA, int[] b, long totalB) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Math.abs((double) a[i] / totalA - (double) b[i] / totalB);
+        }
+        return sum / 2;
+    }
+
+    /**
+     * Divides every value by the maximum, into the output array. If the
+     * maximum is not positive, the output is all 0.
+     */
+    public static void normalise(int[] values, int max, double[] into) {
+        if (VECTORISED) {
+            VectorKernels.normalise(values, max, into);
+        } else {
+            scalarNormalise(values, max, into);
+        }
+    }
+
+    /**
+     * Blends lamp light with natural light, into the output array: the light
+     * of every cell is the largest of the natural light and the lamp light
+     * multiplied by the brightness of the lamps.
+     */
+    public static void blendLight(double[] lampLight, double brightness, double naturalLight, double[] into) {
+        if (VECTORISED) {
+            VectorKernels.blendLight(lampLight, brightness, naturalLight, into);
+        } else {
+            scalarBlendLight(lampLight, brightness, naturalLight, into);
+        }
+    }
+
+    static long scalarSum(int[] values) {
+        long sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    static int scalarMax(int[] values) {
+        int max = 0;
+        for (int value : values) {
+            max = value > max ? value : max;
+        }
+        return max;
+    }
+
+    static void scalarNormalise(int[] values, int max, double[] into) {
+        for (int i = 0; i < values.length; i++) {
+            into[i] = max > 0 ? (double) values[i] / max : 0;
+        }
+    }
+
+    static void scalarBlendLight(double[] lampLight, double brightness, double naturalLight, double[] into) {
+        for (int i = 0; i < lampLight.length; i++) {
+            into[i] = Math.max(naturalLight, brightness * lampLight[i]);
+        }
+    }
+}
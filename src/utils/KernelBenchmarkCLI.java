@@ -0,0 +1,89 @@
+package utils;
+
+import java.util.Random;
+
+public final class KernelBenchmarkCLI {
+    /**
+     * Default grid sizes: city_map.jpeg at the default image scale and at full
+     * resolution, and a much larger map.
+     */
+    private static final int[] DEFAULT_SIZES = { 325, 1300, 4096 };
+    private static final long MINIMUM_NANOS = 500_000_000L;
+
+    // results are added here so that the JIT cannot discard the passes
+    private static double sink;
+
+    private KernelBenchmarkCLI() {}
+
+    /**
+     * Times every vectorised pass of {@link GridKernels}, with and without the
+     * Vector API, on square grids of random crime counts and light values, and writes
+     * the time per cell and the speedup to stdout. The arguments are the
+     * lengths of the sides of the grids, or the default sizes if there are
+     * none.
+     *
+     * The JVM must be started with --add-modules jdk.incubator.vector.
+     */
+    public static void main(String[] args) {
+        if (!GridKernels.VECTORISED) {
+            System.err.println("The Vector API is not available, please run with --add-modules jdk.incubator.vector"
+                    + " on hardware with vectors of at least two doubles.");
+            System.exit(1);
+        }
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.format("%-10s %-16s %12s %12s %8s\n", "grid", "pass", "scalar ns", "vector ns", "speedup");
+        for (int size : sizes) {
+            int cells = size * size;
+            Random random = new Random(size);
+            int[] counts = new int[cells];
+            double[] light = new double[cells], output = new double[cells];
+            for (int id = 0; id < cells; id++) {
+                // most cells never see a crime
+                counts[id] = random.nextInt(8) == 0 ? random.nextInt(1000) : 0;
+                light[id] = random.nextDouble();
+            }
+            int max = GridKernels.scalarMax(counts);
+            String grid = size + "x" + size;
+
+            report(grid, "sum", cells, () -> sink += GridKernels.scalarSum(counts),
+                    () -> sink += VectorKernels.sum(counts));
+            report(grid, "max", cells, () -> sink += GridKernels.scalarMax(counts),
+                    () -> sink += VectorKernels.max(counts));
+            report(grid, "normalise", cells, () -> GridKernels.scalarNormalise(counts, max, output),
+                    () -> VectorKernels.normalise(counts, max, output));
+            report(grid, "blend light", cells, () -> GridKernels.scalarBlendLight(light, 1, 0.25, output),
+                    () -> VectorKernels.blendLight(light, 1, 0.25, output));
+        }
+    }
+
+    private static void report(String grid, String pass, int cells, Runnable scalar, Runnable vector) {
+        double scalarNanos = time(scalar) / cells, vectorNanos = time(vector) / cells;
+        System.out.format("%-10s %-16s %12.3f %12.3f %7.1fx\n", grid, pass, scalarNanos, vectorNanos,
+                scalarNanos / vectorNanos);
+    }
+
+    /**
+     * Returns the average time of a run of the pass, in nanoseconds, after
+     * running it for a while to let the JIT compile it.
+     */
+    private static double time(Runnable pass) {
+        for (long start = System.nanoTime(); System.nanoTime() - start < MINIMUM_NANOS;) {
+            pass.run();
+        }
+        int runs = 0;
+        long start = System.nanoTime(), elapsed;
+        do {
+            pass.run();
+            runs++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MINIMUM_NANOS);
+        return (double) elapsed / runs;
+    }
+}
@@ -1,5 +1,6 @@
 package utils;
 
+import java.util.Arrays;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -36,11 +37,7 @@ public class Utils {
      * is too much to ask of the standard library.
      */
     public static Logger getConsoleLogger(Class<?> owner) {
-        Logger log = Logger.getLogger(owner.getSimpleName());
-        log.setUseParentHandlers(false);
-        log.addHandler(logHandler);
-        log.setLevel(LOGGING_LEVEL);
-        return log;
+        return getConsoleLogger(owner.getSimpleName());
     }
     
     /**
@@ -50,7 +47,12 @@ public class Utils {
     public static Logger getConsoleLogger(String name) {
         Logger log = Logger.getLogger(name);
         log.setUseParentHandlers(false);
-        log.addHandler(logHandler);
+        // loggers are shared by name, only add the handler the first time around
+        synchronized (logHandler) {
+            if (!Arrays.asList(log.getHandlers()).contains(logHandler)) {
+                log.addHandler(logHandler);
+            }
+        }
         log.setLevel(LOGGING_LEVEL);
         return log;
     }
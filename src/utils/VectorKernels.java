@@ -0,0 +1,92 @@
+package utils;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The passes of {@link GridKernels}, written with the Vector API. This class
+ * must only be loaded if the jdk.incubator.vector module is available.
+ *
+ * Int values are widened to longs or doubles, so they are loaded in vectors
+ * of half the preferred size, with as many lanes as the wider vectors. The
+ * elements left over at the end of the arrays are handled one at a time. If
+ * the preferred vectors are too small to be halved, the passes must not be
+ * used at all: see {@link #SUPPORTED}.
+ */
+final class VectorKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * False if the preferred vectors hold a single double, since there is no
+     * vector shape half that size to load the ints into.
+     */
+    static final boolean SUPPORTED = DOUBLES.length() > 1;
+    private static final VectorSpecies<Integer> HALF_INTS = SUPPORTED
+            ? VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2))
+            : null;
+
+    private VectorKernels() {}
+
+    static long sum(int[] values) {
+        LongVector sums = LongVector.zero(LONGS);
+        int i = 0;
+        for (int bound = HALF_INTS.loopBound(values.length); i < bound; i += HALF_INTS.length()) {
+            sums = sums.add(IntVector.fromArray(HALF_INTS, values, i).convertShape(VectorOperators.I2L, LONGS, 0));
+        }
+        long sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < values.length; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    static int max(int[] values) {
+        IntVector maxima = IntVector.zero(INTS);
+        int i = 0;
+        for (int bound = INTS.loopBound(values.length); i < bound; i += INTS.length()) {
+            maxima = maxima.max(IntVector.fromArray(INTS, values, i));
+        }
+        int max = maxima.reduceLanes(VectorOperators.MAX);
+        for (; i < values.length; i++) {
+            max = values[i] > max ? values[i] : max;
+        }
+        return max;
+    }
+
+    static void normalise(int[] values, int max, double[] into) {
+        if (max <= 0) {
+            Arrays.fill(into, 0, values.length, 0);
+            return;
+        }
+        int i = 0;
+        for (int bound = HALF_INTS.loopBound(values.length); i < bound; i += HALF_INTS.length()) {
+            toDoubles(values, i).div(max).intoArray(into, i);
+        }
+        for (; i < values.length; i++) {
+            into[i] = (double) values[i] / max;
+        }
+    }
+
+    static void blendLight(double[] lampLight, double brightness, double naturalLight, double[] into) {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(lampLight.length); i < bound; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, lampLight, i).mul(brightness).max(naturalLight).intoArray(into, i);
+        }
+        for (; i < lampLight.length; i++) {
+            into[i] = Math.max(naturalLight, brightness * lampLight[i]);
+        }
+    }
+
+    private static DoubleVector toDoubles(int[] values, int offset) {
+        return (DoubleVector) IntVector.fromArray(HALF_INTS, values, offset).convertShape(VectorOperators.I2D,
+                DOUBLES, 0);
+    }
+}
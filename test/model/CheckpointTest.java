@@ -0,0 +1,107 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import utils.Utils;
+
+/**
+ * Checks that checkpoints are exact: a model restored from a checkpoint must
+ * carry on with the same heatmap and the same agent positions as a model
+ * which never stopped. This is checked with sleeping agents, with parallel
+ * rounds and with a lighting schedule which wakes the sleepers, which all
+ * add to the checkpoint.
+ *
+ * Run with the ant test target, from the root of the project.
+ */
+public final class CheckpointTest {
+    private static final String PARAMETERS = "test/model/parallel_rounds.parameters";
+    private static final int ROUNDS = 2000, SPLIT = 1000;
+
+    private CheckpointTest() {}
+
+    public static void main(String[] args) throws Exception {
+        Utils.LOGGING_LEVEL = Level.WARNING;
+        check("the default model", "parallel_rounds", "false");
+        check("a model with loiter wake-ups", "parallel_rounds", "false", "loiter_wake_ups", "true");
+        check("a model with parallel rounds on 4 threads", "threads", "4");
+        check("a model with a lighting schedule", "parallel_rounds", "false", "loiter_wake_ups", "true",
+                "day_length", "300", "natural_light", "0.8,0.3,0", "lamp_groups", "0,0,150,250",
+                "lamps_on", "false,true,true;true,false,true");
+        System.out.println("CheckpointTest passed");
+    }
+
+    /**
+     * Runs a model with the specified overrides straight through, then again
+     * with a checkpoint half way, and fails if the two runs differ.
+     */
+    private static void check(String description, String... overrides) throws Exception {
+        int[] reference = new int[0];
+        Model model = new Model(parameters(overrides));
+        try {
+            run(model, ROUNDS);
+            reference = getState(model);
+        } finally {
+            model.stop();
+        }
+        if (Arrays.stream(reference, 0, reference.length / 2).sum() == 0) {
+            throw new AssertionError("No crimes were committed in " + description + ", the test proves nothing");
+        }
+
+        File checkpoint = File.createTempFile("checkpoint", ".bin");
+        checkpoint.deleteOnExit();
+        model = new Model(parameters(overrides));
+        try {
+            run(model, SPLIT);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(checkpoint)))) {
+                model.writeCheckpoint(out);
+            }
+        } finally {
+            model.stop();
+        }
+        model = new Model(parameters(overrides), checkpoint);
+        try {
+            run(model, ROUNDS - SPLIT);
+            if (!Arrays.equals(reference, getState(model))) {
+                throw new AssertionError("The heatmap or the agents differ after restoring " + description);
+            }
+        } finally {
+            model.stop();
+            checkpoint.delete();
+        }
+    }
+
+    private static Parameters parameters(String... overrides) throws Exception {
+        Parameters parameters = new Parameters(PARAMETERS);
+        for (int i = 0; i < overrides.length; i += 2) {
+            parameters.override(overrides[i], overrides[i + 1]);
+        }
+        return parameters;
+    }
+
+    private static void run(Model model, int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            model.doIteration();
+        }
+    }
+
+    /**
+     * Returns the heatmap of the model followed by the occupancy of every
+     * cell.
+     */
+    private static int[] getState(Model model) {
+        int[] heatmap = model.world.getCrimeCounts();
+        int[] state = Arrays.copyOf(heatmap, 2 * heatmap.length);
+        for (int x = 0; x < model.world.xDimension; x++) {
+            for (int y = 0; y < model.world.yDimension; y++) {
+                state[heatmap.length + model.world.map.getId(x, y)] = model.world.getOccupant(x, y) == null ? 0 : 1;
+            }
+        }
+        return state;
+    }
+}
@@ -0,0 +1,65 @@
+package model;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import utils.Utils;
+
+/**
+ * Checks that parallel rounds are reproducible: the same seed must give the
+ * same heatmap and the same agent positions, no matter how many threads
+ * decide the actions of the agents.
+ *
+ * Run with the ant test target, from the root of the project.
+ */
+public final class ParallelRoundsTest {
+    private static final String PARAMETERS = "test/model/parallel_rounds.parameters";
+    private static final int ROUNDS = 3000;
+
+    private ParallelRoundsTest() {}
+
+    public static void main(String[] args) throws Exception {
+        Utils.LOGGING_LEVEL = Level.WARNING;
+        int[] reference = run(1);
+        check(reference, run(1), "a second run on 1 thread");
+        check(reference, run(2), "a run on 2 threads");
+        check(reference, run(8), "a run on 8 threads");
+
+        if (Arrays.stream(reference).sum() == 0) {
+            throw new AssertionError("No crimes were committed, the test proves nothing");
+        }
+        System.out.println("ParallelRoundsTest passed");
+    }
+
+    /**
+     * Runs a model with parallel rounds on the specified number of threads,
+     * and returns its heatmap followed by the occupancy of every cell.
+     */
+    private static int[] run(int threads) throws Exception {
+        Parameters parameters = new Parameters(PARAMETERS);
+        parameters.override("threads", Integer.toString(threads));
+        Model model = new Model(parameters);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                model.doIteration();
+            }
+        } finally {
+            model.stop();
+        }
+
+        int[] heatmap = model.world.getCrimeCounts();
+        int[] state = Arrays.copyOf(heatmap, 2 * heatmap.length);
+        for (int x = 0; x < model.world.xDimension; x++) {
+            for (int y = 0; y < model.world.yDimension; y++) {
+                state[heatmap.length + model.world.map.getId(x, y)] = model.world.getOccupant(x, y) == null ? 0 : 1;
+            }
+        }
+        return state;
+    }
+
+    private static void check(int[] expected, int[] actual, String description) {
+        if (!Arrays.equals(expected, actual)) {
+            throw new AssertionError("The heatmap or the agents differ in " + description);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package model.map;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import model.world.Cell;
+import model.world.CellType;
+import model.world.World;
+import utils.Utils;
+
+/**
+ * Checks that the lighting computed from the shadow masks and the kernel is
+ * exactly the light found by tracing a line from every lamp to every cell
+ * around it, as the model originally did, on a generated map dense with
+ * lamps and obstructions. Both
+ * {@link Lighting#computeLighting(World)} and
+ * {@link Lighting#computeLayer(Lighting.TypeGrid, int[], int[], int, int, int, int)}
+ * are checked.
+ *
+ * Run with the ant test target, from the root of the project.
+ */
+public final class LightingTest {
+    // not a multiple of the diameter of a lamp, so that lamps are cut off on every edge
+    private static final int X_DIMENSION = 157, Y_DIMENSION = 113;
+    private static final double LAMP_DENSITY = 0.05, OBSTRUCTION_DENSITY = 0.2;
+
+    private LightingTest() {}
+
+    public static void main(String[] args) {
+        World w = generate(new Random(42));
+        World reference = copy(w);
+        computeReference(reference);
+        Lighting.computeLighting(w);
+
+        int lamps = 0;
+        int[] lampX = new int[X_DIMENSION * Y_DIMENSION], lampY = new int[X_DIMENSION * Y_DIMENSION];
+        for (int x = 0; x < X_DIMENSION; x++) {
+            for (int y = 0; y < Y_DIMENSION; y++) {
+                if (w.grid[x][y].type == CellType.LAMP) {
+                    lampX[lamps] = x;
+                    lampY[lamps++] = y;
+                }
+            }
+        }
+        double[] layer = Lighting.computeLayer((x, y) -> w.withinBounds(x, y) ? w.grid[x][y].type : null,
+                Arrays.copyOf(lampX, lamps), Arrays.copyOf(lampY, lamps),
+                0, 0, X_DIMENSION - 1, Y_DIMENSION - 1);
+
+        for (int x = 0; x < X_DIMENSION; x++) {
+            for (int y = 0; y < Y_DIMENSION; y++) {
+                double expected = reference.grid[x][y].light;
+                check(expected, w.grid[x][y].light, "computeLighting", x, y);
+                check(expected, layer[x * Y_DIMENSION + y], "computeLayer", x, y);
+            }
+        }
+        System.out.println("LightingTest passed");
+    }
+
+    /**
+     * Returns a map of paths with lamps and obstructions of every kind
+     * scattered at random.
+     */
+    private static World generate(Random random) {
+        World w = new World(X_DIMENSION, Y_DIMENSION);
+        for (int x = 0; x < X_DIMENSION; x++) {
+            for (int y = 0; y < Y_DIMENSION; y++) {
+                double draw = random.nextDouble();
+                CellType type = CellType.PATH;
+                if (draw < LAMP_DENSITY) {
+                    type = CellType.LAMP;
+                } else if (draw < LAMP_DENSITY + OBSTRUCTION_DENSITY) {
+                    type = CellType.types[1 + random.nextInt(3)];
+                }
+                w.grid[x][y] = new Cell(type, x, y);
+            }
+        }
+        return w;
+    }
+
+    private static World copy(World w) {
+        World copy = new World(w.xDimension, w.yDimension);
+        for (int x = 0; x < w.xDimension; x++) {
+            for (int y = 0; y < w.yDimension; y++) {
+                copy.grid[x][y] = new Cell(w.grid[x][y].type, x, y);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Lights the world one lamp and one cell at a time, by tracing the line
+     * of sight between them.
+     */
+    private static void computeReference(World w) {
+        for (int y = 0; y < w.yDimension; y++) {
+            for (int x = 0; x < w.xDimension; x++) {
+                if (w.grid[x][y].type != CellType.LAMP) {
+                    continue;
+                }
+                for (int i = -Lighting.RADIUS_INT; i <= Lighting.RADIUS_INT; i++) {
+                    for (int j = -Lighting.RADIUS_INT; j <= Lighting.RADIUS_INT; j++) {
+                        if (w.withinBounds(x + i, y + j)
+                                && (w.grid[x + i][y + j].type == CellType.PATH
+                                        || w.grid[x + i][y + j].type == CellType.LAMP)
+                                && isVisible(w, x, y, x + i, y + j)) {
+                            double light = Math.pow(1 + Utils.getDistance(i, j), Lighting.EXPONENT);
+                            if (light < Lighting.LIGHT_THRESHOLD) {
+                                light = 0;
+                            }
+                            w.grid[x + i][y + j].light = Math.max(w.grid[x + i][y + j].light, light);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the line from the start to the end, traced with
+     * Bresenham's algorithm as the model has always done, reaches the end
+     * before any cell which obstructs the view.
+     */
+    private static boolean isVisible(World w, int startX, int startY, int endX, int endY) {
+        int deltaX = endX - startX, deltaY = endY - startY;
+        int stepX = Integer.signum(deltaX), stepY = Integer.signum(deltaY);
+        boolean alongX = Math.abs(deltaX) > Math.abs(deltaY);
+        int longest = Math.max(Math.abs(deltaX), Math.abs(deltaY));
+        int shortest = Math.min(Math.abs(deltaX), Math.abs(deltaY));
+        int numerator = longest >> 1;
+        int x = startX, y = startY;
+        for (int i = 0; i <= longest; i++) {
+            if (x == endX && y == endY) {
+                return true;
+            }
+            if (w.grid[x][y].type.obstructsView) {
+                return false;
+            }
+            numerator += shortest;
+            if (numerator >= longest) {
+                numerator -= longest;
+                x += stepX;
+                y += stepY;
+            } else if (alongX) {
+                x += stepX;
+            } else {
+                y += stepY;
+            }
+        }
+        return false;
+    }
+
+    private static void check(double expected, double actual, String method, int x, int y) {
+        if (Double.doubleToLongBits(expected) != Double.doubleToLongBits(actual)) {
+            throw new AssertionError(String.format("Expected %s but got %s from %s at [%s, %s]",
+                    expected, actual, method, x, y));
+        }
+    }
+}
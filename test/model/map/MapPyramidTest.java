@@ -0,0 +1,79 @@
+package model.map;
+
+import java.io.File;
+import java.util.Random;
+
+import model.world.World;
+
+/**
+ * Checks that projecting heat maps between the levels of a pyramid preserves
+ * their totals, and that the light of every coarse cell is the mean light of
+ * its block.
+ *
+ * Run with the ant test target, from the root of the project.
+ */
+public final class MapPyramidTest {
+    private static final String MAP = "resources/city_map_small_lit.map";
+    // 2^4 does not divide the dimensions of the map, so the last blocks are incomplete
+    private static final int LEVELS = 5;
+    private static final double TOLERANCE = 1e-9;
+
+    private MapPyramidTest() {}
+
+    public static void main(String[] args) throws Exception {
+        MapPyramid pyramid = new MapPyramid(MapParser.read(new File(MAP)), LEVELS);
+        Random random = new Random(42);
+        for (int from = 0; from < LEVELS; from++) {
+            World w = pyramid.getLevel(from);
+            double[][] heatMap = new double[w.xDimension][w.yDimension];
+            for (int x = 0; x < w.xDimension; x++) {
+                for (int y = 0; y < w.yDimension; y++) {
+                    heatMap[x][y] = random.nextInt(4) == 0 ? random.nextInt(100) : 0;
+                }
+            }
+            for (int to = 0; to < LEVELS; to++) {
+                double[][] projected = pyramid.project(heatMap, from, to);
+                check(total(heatMap), total(projected), "the total projected from level " + from + " to " + to);
+            }
+        }
+
+        World base = pyramid.getLevel(0);
+        double[][] light = new double[base.xDimension][base.yDimension];
+        for (int x = 0; x < base.xDimension; x++) {
+            for (int y = 0; y < base.yDimension; y++) {
+                light[x][y] = base.grid[x][y].light;
+            }
+        }
+        for (int level = 1; level < LEVELS; level++) {
+            // the light of a block, added up by the projection, is the mean light times the size of the block
+            double[][] blockLight = pyramid.project(light, 0, level);
+            World w = pyramid.getLevel(level);
+            int factor = 1 << level;
+            for (int x = 0; x < w.xDimension; x++) {
+                for (int y = 0; y < w.yDimension; y++) {
+                    int blockX = Math.min(base.xDimension, (x + 1) * factor) - x * factor;
+                    int blockY = Math.min(base.yDimension, (y + 1) * factor) - y * factor;
+                    check(blockLight[x][y], w.grid[x][y].light * blockX * blockY,
+                            "the light of [" + x + ", " + y + "] on level " + level);
+                }
+            }
+        }
+        System.out.println("MapPyramidTest passed");
+    }
+
+    private static double total(double[][] heatMap) {
+        double total = 0;
+        for (double[] column : heatMap) {
+            for (double value : column) {
+                total += value;
+            }
+        }
+        return total;
+    }
+
+    private static void check(double expected, double actual, String description) {
+        if (Math.abs(expected - actual) > TOLERANCE * Math.max(1, Math.abs(expected))) {
+            throw new AssertionError("Expected " + expected + " but got " + actual + " for " + description);
+        }
+    }
+}